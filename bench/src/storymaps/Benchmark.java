@@ -0,0 +1,68 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * A benchmark harness for one hot path. BenchmarkRunner calls setUp once for
+ * each story size, then calls run repeatedly (first to warm up, then to
+ * measure) and reports throughput and allocation per call of run.
+ *
+ * Benchmarks live in package storymaps so that they can reach the
+ * package-private classes they measure.
+ *
+ * @author seanh
+ */
+abstract class Benchmark {
+
+    private final String name;
+
+    Benchmark(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Build the synthetic input for a story with the given number of cards.
+     */
+    abstract void setUp(int cards) throws Exception;
+
+    /**
+     * Run one operation of the benchmark. The return value is ignored, it
+     * only stops the JIT from removing the work as dead code.
+     */
+    abstract Object run() throws Exception;
+
+    /**
+     * Return the largest story size, in cards, that this benchmark gives
+     * meaningful results for. BenchmarkRunner skips larger sizes.
+     */
+    int getMaxCards() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Release anything built by setUp.
+     */
+    void tearDown() throws Exception {
+    }
+}
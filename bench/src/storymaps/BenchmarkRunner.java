@@ -0,0 +1,189 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.awt.HeadlessException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks and prints a table of results: throughput (operations
+ * per second), time per operation, bytes allocated per operation and
+ * allocation rate in MB/s, for each benchmark at each story size.
+ *
+ * Usage: BenchmarkRunner [sizes] [filter]
+ *
+ * sizes is a comma-separated list of story sizes in cards (default
+ * 10,100,10000) and filter, if given, runs only the benchmarks whose names
+ * contain it. The warmup and measurement time for each benchmark and size
+ * can be set in milliseconds with -Dbench.warmup and -Dbench.time. A
+ * benchmark is skipped at sizes bigger than it supports (see
+ * Benchmark.getMaxCards).
+ *
+ * Each measurement runs the operation in a loop for (at least) the given
+ * time on the current thread, so times are wall-clock times and allocation is
+ * the current thread's allocation as reported by the JVM. Results are only
+ * comparable between runs on the same machine and JVM.
+ *
+ * @author seanh
+ */
+public class BenchmarkRunner {
+
+    private static final int[] DEFAULT_SIZES = {10, 100, 10000};
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmup", 2000);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.time", 3000);
+
+    /**
+     * Where the results of Benchmark.run are stored, so that the JIT can't
+     * tell that they're unused and remove the work as dead code.
+     */
+    private static volatile Object sink;
+
+    private static List<Benchmark> benchmarks() {
+        List<Benchmark> list = new ArrayList<Benchmark>();
+        list.add(new SaveMementoBenchmark());
+        list.add(new SaveStoryFileBenchmark());
+        list.add(new RestoreMementoBenchmark());
+        list.add(new RenderStoryMapBenchmark());
+        list.add(new ExportStoryMapBenchmark());
+        list.add(new ExportCardImagesBenchmark());
+        list.add(new LayoutBenchmark());
+        list.add(new PaintCardsBenchmark());
+        list.add(new FindNearestBenchmark());
+        list.add(new DropBenchmark());
+        list.add(new MessagerSendBenchmark(false));
+        list.add(new MessagerSendBenchmark(true));
+        list.add(new JSONParseBenchmark());
+        return list;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        String filter = args.length > 1 ? args[1] : null;
+
+        System.out.println(String.format("%-55s %7s %12s %12s %14s %10s",
+                "Benchmark", "Cards", "ops/s", "us/op", "B/op", "MB/s"));
+        for (Benchmark b : benchmarks()) {
+            if (filter != null && !b.getName().contains(filter)) {
+                continue;
+            }
+            for (int size : sizes) {
+                if (size > b.getMaxCards()) {
+                    System.out.println(String.format("%-55s %7d %s",
+                            b.getName(), size,
+                            "more cards than functions, skipped"));
+                    continue;
+                }
+                b.setUp(size);
+                try {
+                    measure(b, WARMUP_MILLIS);
+                    Result r = measure(b, MEASURE_MILLIS);
+                    System.out.println(String.format(
+                            "%-55s %7d %12.1f %12.1f %14s %10.1f",
+                            b.getName(), size, r.opsPerSecond(),
+                            r.microsPerOp(), r.bytesPerOpString(),
+                            r.megabytesPerSecond()));
+                } catch (HeadlessException e) {
+                    System.out.println(String.format("%-55s %7d %s",
+                            b.getName(), size, "needs a display, skipped"));
+                } finally {
+                    b.tearDown();
+                    // Don't let one benchmark's story cards (which are
+                    // subscribed to the messager) pile up into the next.
+                    Messager.getMessager().clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run b repeatedly for at least the given time and return the result.
+     */
+    private static Result measure(Benchmark b, long millis) throws Exception {
+        System.gc();
+        long deadline = System.nanoTime() + millis * 1000000L;
+        long ops = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long now;
+        do {
+            sink = b.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long elapsed = now - start;
+        long allocated = allocatedBytes();
+        Result r = new Result();
+        r.ops = ops;
+        r.nanos = elapsed;
+        r.bytes = (bytes < 0 || allocated < 0) ? -1 : allocated - bytes;
+        return r;
+    }
+
+    /**
+     * Return the number of bytes allocated so far by the current thread, or
+     * -1 if the JVM can't tell us.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun =
+                    (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported()
+                    && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static final class Result {
+        long ops;
+        long nanos;
+        long bytes;
+
+        double opsPerSecond() {
+            return ops * 1e9 / nanos;
+        }
+
+        double microsPerOp() {
+            return nanos / 1e3 / ops;
+        }
+
+        String bytesPerOpString() {
+            return bytes < 0 ? "n/a" : Long.toString(bytes / ops);
+        }
+
+        double megabytesPerSecond() {
+            return bytes < 0 ? 0 : bytes * 1e9 / nanos / (1024 * 1024);
+        }
+    }
+}
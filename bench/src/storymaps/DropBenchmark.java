@@ -0,0 +1,66 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import DragAndDrop.Droppable;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark for Draggable.drop, the drag-and-drop dispatch that runs whenever
+ * a story card is dropped. The story map has n cards on 2n placeholders, and
+ * each operation drops every one of its cards back onto the story map in
+ * turn (so at 10000 cards, one operation is 10000 drops in sequence). Each
+ * drop asks the story map to accept the card, which positions it over the
+ * nearest free placeholder, then notifies the card's observers.
+ *
+ * @author seanh
+ */
+class DropBenchmark extends Benchmark {
+
+    private StoryMap map;
+    private Droppable droppable;
+    private List<StoryCard> cards;
+    private final Point2D position = new Point2D.Double();
+
+    DropBenchmark() {
+        super("Draggable.drop");
+    }
+
+    void setUp(int n) throws Exception {
+        map = SyntheticStory.newStoryMap(SyntheticStory.newStoryEditor(),
+                2 * n, 2);
+        droppable = (Droppable) map.getNode().getAttribute("Droppable");
+        cards = new ArrayList<StoryCard>(map.getStoryCards());
+    }
+
+    Object run() throws Exception {
+        int accepted = 0;
+        for (StoryCard card : cards) {
+            position.setLocation(card.getNode().getGlobalTranslation());
+            if (card.getDraggable().drop(droppable, position)) {
+                accepted++;
+            }
+        }
+        return Integer.valueOf(accepted);
+    }
+}
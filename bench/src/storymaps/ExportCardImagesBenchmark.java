@@ -0,0 +1,75 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Benchmark for CardImageExporter.export, which renders the story map's
+ * cards to images and writes them as PNG files when a story is saved as
+ * HTML. Each operation waits for all of the images to be written.
+ *
+ * Piccolo can't render nodes to images without a display, so this benchmark
+ * is skipped when running headless.
+ *
+ * @author seanh
+ */
+class ExportCardImagesBenchmark extends Benchmark {
+
+    private final CardImageExporter exporter = new CardImageExporter();
+    private StoryMap map;
+    private File dir;
+
+    ExportCardImagesBenchmark() {
+        super("CardImageExporter.export");
+    }
+
+    void setUp(int n) throws Exception {
+        map = SyntheticStory.newStoryMap(SyntheticStory.newStoryEditor(), n);
+        dir = File.createTempFile("bench", "_files");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    Object run() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final int[] written = new int[1];
+        exporter.export(map.getStoryCards(), dir, null,
+                new CardImageExporter.Listener() {
+
+            public void exported(int w, int failed, boolean canceled) {
+                written[0] = w;
+                finished.countDown();
+            }
+        });
+        finished.await();
+        return written;
+    }
+
+    @Override
+    void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
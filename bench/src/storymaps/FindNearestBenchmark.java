@@ -0,0 +1,51 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * Benchmark for StoryMap.findNearest, which is called every time a story card
+ * is dropped onto the story map. Every other placeholder is taken.
+ *
+ * @author seanh
+ */
+class FindNearestBenchmark extends Benchmark {
+
+    private StoryMap map;
+    private StoryCard card;
+
+    FindNearestBenchmark() {
+        super("StoryMap.findNearest");
+    }
+
+    void setUp(int n) throws Exception {
+        // n cards on 2n placeholders.
+        map = SyntheticStory.newStoryMap(SyntheticStory.newStoryEditor(),
+                2 * n, 2);
+        card = new StoryCard(SyntheticStory.function(1));
+        map.getNode().addChild(card.getNode());
+        card.getNode().setOffset(0.5 * SyntheticStory.WIDTH,
+                0.5 * SyntheticStory.HEIGHT);
+    }
+
+    Object run() throws Exception {
+        return map.findNearest(card);
+    }
+}
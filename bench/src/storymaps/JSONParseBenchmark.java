@@ -0,0 +1,57 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import org.json.JSONObject;
+
+/**
+ * Benchmark for parsing a functions catalog with n functions using
+ * org.json.JSONObject(String).
+ *
+ * @author seanh
+ */
+class JSONParseBenchmark extends Benchmark {
+
+    private String json;
+
+    JSONParseBenchmark() {
+        super("org.json.JSONObject(String)");
+    }
+
+    void setUp(int n) throws Exception {
+        StringBuilder b = new StringBuilder("{\"functions\":[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                b.append(',');
+            }
+            b.append("{\"number\":").append(i);
+            b.append(",\"name\":\"Function ").append(i).append('"');
+            b.append(",\"description\":\"<p>A short <b>description</b> of function ").append(i).append(".</p>\"");
+            b.append(",\"instructions\":\"<ul><li>Some instructions.</li><li>Some more instructions, with an example.</li></ul>\"}");
+        }
+        b.append("]}");
+        json = b.toString();
+    }
+
+    Object run() throws Exception {
+        return new JSONObject(json);
+    }
+}
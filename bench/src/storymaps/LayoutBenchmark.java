@@ -0,0 +1,87 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import edu.umd.cs.piccolo.PNode;
+
+/**
+ * Benchmark for CentreAlignedRowsLayoutNode.layoutChildren. The layout node
+ * holds n card-sized children, and each operation adds one more child and
+ * lays out, then removes it and lays out again (the layout node only
+ * recomputes the layout when its children change).
+ *
+ * After each size the layout node's own statistics are printed under the
+ * result: how many layouts each operation caused, how long a layout took on
+ * average and at most, and how many children each operation moved.
+ *
+ * @author seanh
+ */
+class LayoutBenchmark extends Benchmark {
+
+    private static final double CARD_WIDTH = 110;
+    private static final double CARD_HEIGHT = 150;
+
+    private CentreAlignedRowsLayoutNode layout;
+    private PNode extra;
+    private long ops;
+
+    LayoutBenchmark() {
+        super("CentreAlignedRowsLayoutNode.layoutChildren");
+    }
+
+    void setUp(int n) throws Exception {
+        layout = new CentreAlignedRowsLayoutNode(9);
+        layout.setBounds(0, 0, SyntheticStory.WIDTH, SyntheticStory.HEIGHT);
+        for (int i = 0; i < n; i++) {
+            layout.addChild(newCard());
+        }
+        layout.layoutChildren();
+        layout.resetLayoutStatistics();
+        extra = newCard();
+        ops = 0;
+    }
+
+    private static PNode newCard() {
+        PNode node = new PNode();
+        node.setBounds(0, 0, CARD_WIDTH, CARD_HEIGHT);
+        return node;
+    }
+
+    Object run() throws Exception {
+        layout.addChild(extra);
+        layout.layoutChildren();
+        layout.removeChild(extra);
+        layout.layoutChildren();
+        ops++;
+        return layout;
+    }
+
+    @Override
+    void tearDown() {
+        long layouts = layout.getLayoutCount();
+        System.out.println(String.format(
+                "    %.1f layouts/op, %.1f us/layout (max %.1f us), %.1f children moved/op",
+                (double) layouts / ops,
+                layouts == 0 ? 0.0 : layout.getLayoutTimeNanos() / 1000.0 / layouts,
+                layout.getMaxLayoutTimeNanos() / 1000.0,
+                (double) layout.getRepositionedCount() / ops));
+    }
+}
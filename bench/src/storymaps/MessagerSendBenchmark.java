@@ -0,0 +1,84 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * Benchmark for Messager.send with n receivers subscribed to the message.
+ *
+ * If bySender, each receiver subscribes to the message from its own sender
+ * only (as story cards do to "drag started") and the message is sent from
+ * one of them. Otherwise every receiver subscribes to every sending of the
+ * message.
+ *
+ * @author seanh
+ */
+class MessagerSendBenchmark extends Benchmark {
+
+    private static final Message MESSAGE = Message.get("benchmark message");
+
+    private final boolean bySender;
+    private CountingReceiver[] receivers;
+    private Object arg;
+
+    MessagerSendBenchmark(boolean bySender) {
+        super(bySender ? "Messager.send (acceptFrom)" : "Messager.send");
+        this.bySender = bySender;
+    }
+
+    void setUp(int n) throws Exception {
+        receivers = new CountingReceiver[n];
+        for (int i = 0; i < n; i++) {
+            receivers[i] = new CountingReceiver();
+            if (bySender) {
+                Messager.getMessager().acceptFrom(MESSAGE, receivers[i],
+                        receivers[i], null);
+            } else {
+                Messager.getMessager().accept(MESSAGE, receivers[i], null);
+            }
+        }
+        arg = receivers[n / 2];
+    }
+
+    Object run() throws Exception {
+        Messager.getMessager().send(MESSAGE, arg);
+        return receivers;
+    }
+
+    @Override
+    void tearDown() {
+        for (CountingReceiver r : receivers) {
+            if (bySender) {
+                Messager.getMessager().ignoreFrom(MESSAGE, r, r);
+            } else {
+                Messager.getMessager().ignore(MESSAGE, r);
+            }
+        }
+    }
+
+    private static final class CountingReceiver implements Receiver {
+        int count;
+
+        public void receive(Message message, Object receiver_arg,
+                Object sender_arg) {
+            count++;
+        }
+    }
+}
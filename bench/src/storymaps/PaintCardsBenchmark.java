@@ -0,0 +1,79 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.util.PPaintContext;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark for painting story card nodes (and so their SemanticImageNodes)
+ * zoomed out, as happens on every frame of a camera zoom animation. Each
+ * operation paints all n cards into an offscreen image at a quarter of their
+ * full size, with Piccolo's high quality rendering (which is what PCanvas
+ * uses for the final frame of an animation).
+ *
+ * @author seanh
+ */
+class PaintCardsBenchmark extends Benchmark {
+
+    private static final double SCALE = 0.25;
+
+    private final BufferedImage canvas =
+            new BufferedImage(1024, 768, BufferedImage.TYPE_INT_ARGB);
+    private List<PNode> nodes;
+
+    PaintCardsBenchmark() {
+        super("SemanticImageNode.paint");
+    }
+
+    @Override
+    int getMaxCards() {
+        return SyntheticStory.maxUniqueCards();
+    }
+
+    void setUp(int n) throws Exception {
+        nodes = new ArrayList<PNode>(n);
+        for (int i = 0; i < n; i++) {
+            StoryCard card = new StoryCard(SyntheticStory.function(i));
+            card.getNode().setOffset(100 * (i % 40), 140 * ((i / 40) % 20));
+            nodes.add(card.getNode());
+        }
+    }
+
+    Object run() throws Exception {
+        Graphics2D g = canvas.createGraphics();
+        try {
+            g.scale(SCALE, SCALE);
+            PPaintContext context = new PPaintContext(g);
+            context.setRenderQuality(PPaintContext.HIGH_QUALITY_RENDERING);
+            for (PNode node : nodes) {
+                node.fullPaint(context);
+            }
+        } finally {
+            g.dispose();
+        }
+        return canvas;
+    }
+}
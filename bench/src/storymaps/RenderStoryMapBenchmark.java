@@ -0,0 +1,44 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * Benchmark for TemplateHandler.renderStoryMap, the way PreviewDialog calls
+ * it to preview or export a story.
+ *
+ * @author seanh
+ */
+class RenderStoryMapBenchmark extends Benchmark {
+
+    private StoryMap map;
+
+    RenderStoryMapBenchmark() {
+        super("TemplateHandler.renderStoryMap");
+    }
+
+    void setUp(int n) throws Exception {
+        map = SyntheticStory.newStoryMap(SyntheticStory.newStoryEditor(), n);
+    }
+
+    Object run() throws Exception {
+        return TemplateHandler.getInstance().renderStoryMap(map, "story_files");
+    }
+}
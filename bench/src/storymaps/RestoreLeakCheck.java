@@ -0,0 +1,144 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import edu.umd.cs.piccolo.PNode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Leak regression check: opens the same story over and over, replacing the
+ * open one with Application.StorySwap the way Application.replaceStory does,
+ * and checks that each replaced story map is disconnected from the messager
+ * and that the heap and the messager's subscriptions stay bounded (i.e. the
+ * replaced story maps and story cards are garbage collected).
+ *
+ * Usage: RestoreLeakCheck [opens] [cards]
+ *
+ * opens is the number of times to open the story (default 1000) and cards the
+ * number of cards in it (default 100). Exits with status 1 if a leak is found,
+ * so it can be run from a script.
+ *
+ * @author seanh
+ */
+public class RestoreLeakCheck {
+
+    /**
+     * How many times the heap used after opening the story once is allowed to
+     * grow by the end, to allow for garbage that the collector hasn't got
+     * around to yet.
+     */
+    private static final double MAX_HEAP_GROWTH = 2.0;
+
+    public static void main(String[] args) throws Exception {
+        int opens = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int cards = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        StoryEditor editor = SyntheticStory.newStoryEditor();
+        Memento cardsMemento = SyntheticStory.newStoryCards().createMemento();
+        Memento mapMemento = SyntheticStory.newStoryMap(editor, cards).createMemento();
+        Messager messager = Messager.getMessager();
+        messager.clear();
+
+        StoryCards storyCards = StoryCards.newInstanceFromMemento(cardsMemento);
+        StoryMap storyMap = StoryMap.newInstanceFromMemento(mapMemento, editor);
+        PNode home = new PNode();
+        home.addChild(storyCards.getNode());
+        home.addChild(storyMap.getNode());
+        long heapAfterFirst = usedHeap();
+        int subscriptionsAfterFirst = messager.countSubscriptions();
+
+        List<Long> samples = new ArrayList<Long>();
+        int oldMapSubscriptions = 0;
+        for (int i = 1; i < opens; i++) {
+            StoryCards newCards = StoryCards.newInstanceFromMemento(cardsMemento);
+            StoryMap newMap = StoryMap.newInstanceFromMemento(mapMemento, editor);
+            Application.StorySwap.replace(home, storyCards, storyMap, newCards, newMap);
+            // The replaced map is still strongly referenced here, so none of
+            // its subscriptions can have been expunged as garbage.
+            oldMapSubscriptions = Math.max(oldMapSubscriptions,
+                    messager.countSubscriptions(storyMap));
+            storyCards = newCards;
+            storyMap = newMap;
+            if (i % (Math.max(opens / 10, 1)) == 0) {
+                samples.add(usedHeap());
+            }
+        }
+        long heapAtEnd = usedHeap();
+        int subscriptionsAtEnd = messager.countSubscriptions();
+
+        System.out.println("Opened a story of " + cards + " cards " + opens + " times.");
+        System.out.println("Heap used after the first open: " + heapAfterFirst / 1024 + "KB, at the end: " + heapAtEnd / 1024 + "KB.");
+        System.out.println("Heap used along the way (KB): " + toKilobytes(samples));
+        System.out.println("Messager subscriptions after the first open: " + subscriptionsAfterFirst + ", at the end: " + subscriptionsAtEnd + ".");
+        System.out.println("Most subscriptions left by a replaced story map: " + oldMapSubscriptions + ".");
+
+        boolean leaked = false;
+        if (heapAtEnd > heapAfterFirst * MAX_HEAP_GROWTH) {
+            System.out.println("LEAK: the heap grew by more than " + MAX_HEAP_GROWTH + " times.");
+            leaked = true;
+        }
+        if (oldMapSubscriptions > 0) {
+            System.out.println("LEAK: replaced story maps are still subscribed to messages.");
+            leaked = true;
+        }
+        if (subscriptionsAtEnd > subscriptionsAfterFirst) {
+            System.out.println("LEAK: the messager is holding subscriptions for replaced stories.");
+            leaked = true;
+        }
+        // Keep the last story alive until it has been counted.
+        if (storyCards == null || storyMap == null) {
+            leaked = true;
+        }
+        if (leaked) {
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Return the number of bytes of heap in use after collecting as much
+     * garbage as we can.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // One System.gc() doesn't always collect everything (e.g. objects
+        // with finalizers), so collect until the heap stops shrinking.
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(20);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    private static List<Long> toKilobytes(List<Long> bytes) {
+        List<Long> kilobytes = new ArrayList<Long>();
+        for (long b : bytes) {
+            kilobytes.add(b / 1024);
+        }
+        return kilobytes;
+    }
+}
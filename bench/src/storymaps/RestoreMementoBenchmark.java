@@ -0,0 +1,51 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * Benchmark for StoryMap.newInstanceFromMemento, i.e. the story map half of
+ * opening a saved story.
+ *
+ * @author seanh
+ */
+class RestoreMementoBenchmark extends Benchmark {
+
+    private StoryEditor editor;
+    private Memento memento;
+
+    RestoreMementoBenchmark() {
+        super("StoryMap.newInstanceFromMemento");
+    }
+
+    @Override
+    int getMaxCards() {
+        return SyntheticStory.maxUniqueCards();
+    }
+
+    void setUp(int n) throws Exception {
+        editor = SyntheticStory.newStoryEditor();
+        memento = SyntheticStory.newStoryMap(editor, n).createMemento();
+    }
+
+    Object run() throws Exception {
+        return StoryMap.newInstanceFromMemento(memento, editor);
+    }
+}
@@ -0,0 +1,69 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark for saving a story the way Application.createMemento and
+ * Util.serializeObjectToFile do: create mementos for the card store and the
+ * story map and serialize them to a file.
+ *
+ * @author seanh
+ */
+class SaveMementoBenchmark extends Benchmark {
+
+    private StoryCards cards;
+    private StoryMap map;
+    private File file;
+
+    SaveMementoBenchmark() {
+        super("Application.createMemento+Util.serializeObjectToFile");
+    }
+
+    @Override
+    int getMaxCards() {
+        return SyntheticStory.maxUniqueCards();
+    }
+
+    void setUp(int n) throws Exception {
+        cards = SyntheticStory.newStoryCards();
+        map = SyntheticStory.newStoryMap(SyntheticStory.newStoryEditor(), n);
+        file = File.createTempFile("bench", ".storymap");
+        file.deleteOnExit();
+    }
+
+    Object run() throws Exception {
+        // ApplicationMemento is just these two mementos plus two durations.
+        List<Memento> mementos = new ArrayList<Memento>();
+        mementos.add(cards.createMemento());
+        mementos.add(map.createMemento());
+        Util.serializeObjectToFile(file.getAbsolutePath(), mementos);
+        return mementos;
+    }
+
+    @Override
+    void tearDown() {
+        file.delete();
+    }
+}
@@ -0,0 +1,65 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.File;
+
+/**
+ * Benchmark for saving a story in the binary story file format: capture a
+ * StorySnapshot and write it as a compressed StoryFile. This is what save
+ * and autosave do, for comparison with SaveMementoBenchmark.
+ *
+ * @author seanh
+ */
+class SaveStoryFileBenchmark extends Benchmark {
+
+    private StoryCards cards;
+    private StoryMap map;
+    private File file;
+
+    SaveStoryFileBenchmark() {
+        super("StorySnapshot.capture+StoryFile.write");
+    }
+
+    @Override
+    int getMaxCards() {
+        return SyntheticStory.maxUniqueCards();
+    }
+
+    void setUp(int n) throws Exception {
+        cards = SyntheticStory.newStoryCards();
+        map = SyntheticStory.newStoryMap(SyntheticStory.newStoryEditor(), n);
+        file = File.createTempFile("bench", ".storymap");
+        file.deleteOnExit();
+    }
+
+    Object run() throws Exception {
+        StorySnapshot s = StorySnapshot.capture("Title",
+                map.getPlaceholders(), cards.getStoryCards());
+        new StoryFile(s, 0, 0).write(file.getAbsolutePath(), true);
+        return s;
+    }
+
+    @Override
+    void tearDown() {
+        file.delete();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds synthetic stories of any size for the benchmarks.
+ *
+ * There are only as many Propp functions as there are in functions.json, so
+ * stories bigger than that reuse functions, cycling through the catalog. A
+ * real story can't do that: a story map keeps one card per function (see
+ * PlaceholderIndex), story files key texts and slots by function number and
+ * the story editor names its editors after their functions. So a story of
+ * more than maxUniqueCards cards is only good for measuring code that doesn't
+ * care which function a card has (layout, hit testing, dropping, the
+ * messager). Benchmarks of anything that does (saving, restoring, painting
+ * function images) are limited to maxUniqueCards, see Benchmark.getMaxCards.
+ *
+ * @author seanh
+ */
+final class SyntheticStory {
+
+    static final double WIDTH = 1024;
+    static final double HEIGHT = 400;
+    static final Color COLOR = new Color(0.66f,0.66f,0.68f);
+
+    private SyntheticStory() {
+    }
+
+    /**
+     * Return the largest number of cards that a synthetic story can have
+     * without reusing functions.
+     */
+    static int maxUniqueCards() {
+        return Function.getFunctions().size();
+    }
+
+    /**
+     * Return the i'th function, cycling through the catalog.
+     */
+    static Function function(int i) {
+        List<Function> functions = Function.getFunctions();
+        return functions.get(i % functions.size());
+    }
+
+    /**
+     * Return some user text for the i'th card.
+     */
+    static String text(int i) {
+        return "Once upon a time, in story card number " + i + ", something"
+                + " happened.\n\nAnd then something else happened.";
+    }
+
+    /**
+     * Return a new story map with the given number of placeholders. If every
+     * is greater than 0 then every every'th placeholder holds a story card,
+     * the rest are left free.
+     */
+    static StoryMap newStoryMap(StoryEditor editor, int placeholders,
+            int every) {
+        List<Placeholder> list = new ArrayList<Placeholder>();
+        for (int i = 0; i < placeholders; i++) {
+            Placeholder p = new Placeholder();
+            if (every > 0 && i % every == 0) {
+                p.setStoryCard(new StoryCard(function(i), text(i)));
+            }
+            list.add(p);
+        }
+        return new StoryMap(editor, list, WIDTH, HEIGHT, 0, HEIGHT, COLOR);
+    }
+
+    /**
+     * Return a new story map with the given number of cards, all placed.
+     */
+    static StoryMap newStoryMap(StoryEditor editor, int cards) {
+        return newStoryMap(editor, cards, 1);
+    }
+
+    /**
+     * Return a new card store holding a card for every function.
+     */
+    static StoryCards newStoryCards() {
+        return new StoryCards(WIDTH, HEIGHT, 0, 0, COLOR);
+    }
+
+    /**
+     * Return a new story editor that doesn't belong to any frame.
+     */
+    static StoryEditor newStoryEditor() {
+        return new StoryEditor(null);
+    }
+}
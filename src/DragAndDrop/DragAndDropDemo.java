@@ -112,11 +112,11 @@ class TextObserver extends PText implements DragDropObserver {
     public TextObserver(String text) {
         super(text);
     }
-    public boolean notify(DropEvent de) {
+    public Disposition notify(DropEvent de) {
         Draggable draggee = de.getDraggee();
         Droppable droppee = de.getDroppee();
         setText(getText()+"\n"+draggee+" was dropped onto\n   "+droppee);
-        return true;
+        return Disposition.KEEP;
     }            
 }
 
@@ -190,23 +190,23 @@ class DroppableEllipse implements DroppableOwner, DragDropObserver {
      * A node that was dragged onto the ellipse has now been dragged onto
      * another droppable.
      * @param de The DropEvent object.
-     * @return true to stay subscribed as an observer of this node, false to
+     * @return KEEP to stay subscribed as an observer of this node, DETACH to
      * unsubscribe.
      */
-    public boolean notify(DropEvent de) {
+    public Disposition notify(DropEvent de) {
         Droppable droppee = de.getDroppee();
         Draggable draggee = de.getDraggee();
         if (droppee == d) {
             // The user dragged the node from the ellipse and dropped it onto
             // the same ellipse. Do nothing, and stay subscribed to the node.
-            return true;
+            return Disposition.KEEP;
         }
         else {
             // Node was dropped onto some other droppable. Remove it from the
             // set, update the text node, and unsubscribe.
             draggees.remove(draggee);
             setText();
-            return false;
+            return Disposition.DETACH;
         }
     }    
 }
@@ -27,23 +27,39 @@ package DragAndDrop;
  * accepted all DragDropObservers subscribed to the draggee and the droppee are
  * notified via the notify method.
  * 
- * Note that if one DragDropObserver is subscribed to both the draggee and the
- * droppee of a drop event, then its notify method will be called twice.
+ * If one DragDropObserver is subscribed to both the draggee and the droppee of
+ * a drop event its notify method is only called once, and an observer that is
+ * subscribed while the drop is being processed (for example by the droppee's
+ * owner when it accepts the drop) isn't notified of that drop.
  * 
  * @author seanh
  */
 public interface DragDropObserver {
 
     /**
-     * Notifies that a drag-drop was accepted. Note that DragDropObservers must
-     * _not_ unsubscribe themselves from the calling draggable or droppable in
-     * this method or an exception will occur. Instead return false and you will
-     * be unsubscribed.
+     * What notify returns, to say whether the observer is to stay subscribed
+     * to the draggable or droppable that sent the notification.
+     */
+    public enum Disposition {
+        /**
+         * Stay subscribed.
+         */
+        KEEP,
+        /**
+         * Be unsubscribed.
+         */
+        DETACH
+    }
+
+    /**
+     * Notifies that a drag-drop was accepted. Rather than detaching
+     * themselves from the calling draggable or droppable in this method,
+     * DragDropObservers should return DETACH and they will be unsubscribed.
      * 
      * @param An object that stores information about the drag-drop.
-     * @return true to remain subscribed to the draggable or droppable that sent
-     * the notification, false to unsubscribe.
+     * @return KEEP to remain subscribed to the draggable or droppable that
+     * sent the notification, DETACH to unsubscribe.
      */
-    public boolean notify(DropEvent de);
+    public Disposition notify(DropEvent de);
     
 }
\ No newline at end of file
@@ -20,50 +20,148 @@
 */
 package DragAndDrop;
 
-import java.util.HashSet;
-
 /**
  * Superclass for Draggable and Droppable. Implements the Observer interface
  * that is common to both.
+ *
+ * The observers are kept in an array in the order they were attached, and are
+ * notified in that order. The array is only ever replaced (when an observer
+ * is attached or detached), never modified, so notifying doesn't allocate
+ * anything and observers can attach and detach observers (themselves
+ * included) while being notified.
+ *
+ * Each subscription remembers the last DropEvent that had been created when
+ * it was made, and is only notified of later ones. So an observer that
+ * attaches itself to a draggable while a drop is being processed (as a
+ * DroppableOwner accepting the drop often does) isn't notified of that same
+ * drop.
  * 
  * @author seanh
  */
 public class DragDropSubject {
 
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    /**
+     * An observer and the serial number of the last DropEvent created before
+     * it was attached.
+     */
+    private static final class Subscription {
+
+        final DragDropObserver observer;
+        final long since;
+
+        Subscription(DragDropObserver observer, long since) {
+            this.observer = observer;
+            this.since = since;
+        }
+    }
+
     /**
-     * The observers currently subscribed to this subject.
+     * The observers currently subscribed to this subject, in the order they
+     * were attached.
      */
-    private HashSet<DragDropObserver> observers =
-            new HashSet<DragDropObserver>();
+    private Subscription[] subscriptions = NO_SUBSCRIPTIONS;
 
     /**
-     * Subscribe a new observer.
+     * Subscribe a new observer. Does nothing if the observer is already
+     * subscribed.
      */
     public void attach(DragDropObserver o) {
-        observers.add(o);
+        Subscription[] current = subscriptions;
+        for (Subscription s : current) {
+            if (s.observer == o) {
+                return;
+            }
+        }
+        Subscription[] replacement = new Subscription[current.length + 1];
+        System.arraycopy(current, 0, replacement, 0, current.length);
+        replacement[current.length] = new Subscription(o, DropEvent.lastSerial());
+        subscriptions = replacement;
     }
 
     /**
      * Unsubscribe an observer.
      */
     public void detach(DragDropObserver o) {
-        observers.remove(o);
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].observer == o) {
+                Subscription[] replacement = current.length == 1
+                        ? NO_SUBSCRIPTIONS
+                        : new Subscription[current.length - 1];
+                System.arraycopy(current, 0, replacement, 0, i);
+                System.arraycopy(current, i + 1, replacement, i,
+                        current.length - i - 1);
+                subscriptions = replacement;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return true if the given observer is subscribed to this subject.
+     */
+    public boolean isAttached(DragDropObserver o) {
+        for (Subscription s : subscriptions) {
+            if (s.observer == o) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Called by Draggable and Droppable when they want to notify all of their
-     * observer of a drop event. If an observer's notify method returns false
-     * it will be unsubscribed from the subject.
+     * observer of a drop event. If an observer's notify method returns
+     * DragDropObserver.Disposition.DETACH it will be unsubscribed from the subject.
      */
     public void notify_observers(DropEvent de) {
-        HashSet<DragDropObserver> to_detach = new HashSet<DragDropObserver>();
-        for (DragDropObserver observer : observers) {
-            if (!observer.notify(de)) {
-                to_detach.add(observer);
+        notify_observers(de, subscriptions, NO_SUBSCRIPTIONS);
+    }
+
+    /**
+     * Notify the observers of two subjects (the draggee and droppee of a
+     * drop) of a drop event, first's observers first. An observer that is
+     * subscribed to both is only notified once.
+     */
+    static void notify_observers(DropEvent de, DragDropSubject first,
+            DragDropSubject second) {
+        Subscription[] notified = first.subscriptions;
+        first.notify_observers(de, notified, NO_SUBSCRIPTIONS);
+        second.notify_observers(de, second.subscriptions, notified);
+    }
+
+    /**
+     * Notify the observers in the given subscriptions (this subject's
+     * subscriptions when the notification started, so observers detached on
+     * the way are still notified) of a drop event, except for those that were
+     * attached after the event was created and those that have already been
+     * notified by the given other subscriptions.
+     */
+    private void notify_observers(DropEvent de, Subscription[] current,
+            Subscription[] skip) {
+        for (Subscription s : current) {
+            if (s.since >= de.getSerial() || notifies(skip, s.observer, de)) {
+                continue;
+            }
+            if (s.observer.notify(de) == DragDropObserver.Disposition.DETACH) {
+                detach(s.observer);
             }
         }
-        for (DragDropObserver observer : to_detach) {
-            detach(observer);
+    }
+
+    /**
+     * Return true if the given subscriptions include one for the given
+     * observer that was made before the given event was created.
+     */
+    private static boolean notifies(Subscription[] subscriptions,
+            DragDropObserver o, DropEvent de) {
+        for (Subscription s : subscriptions) {
+            if (s.observer == o) {
+                return s.since < de.getSerial();
+            }
         }
+        return false;
     }
 }
\ No newline at end of file
@@ -24,13 +24,12 @@
 //the canvas to add the event handler?
 package DragAndDrop;
 
-import edu.umd.cs.piccolo.PCamera;
 import edu.umd.cs.piccolo.PLayer;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.event.PDragEventHandler;
 import edu.umd.cs.piccolo.event.PInputEvent;
-import edu.umd.cs.piccolo.util.PPickPath;
 import java.awt.geom.Point2D;
+import storymaps.Message;
 import storymaps.Messager;
 
 /**
@@ -85,6 +84,8 @@ public class Draggable extends DragDropSubject {
         PDragEventHandler dragEventHandler = new PDragEventHandler() {
             private Point2D startPos;
             private PNode previousParent;
+            // The droppable that the node is being dragged over, if any.
+            private Droppable highlighted;
             @Override
             protected void startDrag(PInputEvent e) {
                 super.startDrag(e);
@@ -106,62 +107,57 @@ public class Draggable extends DragDropSubject {
                     }
                     node = node.getParent();
                 }
-                Messager.getMessager().send("drag started", getDraggedNode());
+                // Droppables' ancestors may have moved since the registry's
+                // index was last built, without the registry hearing of it.
+                DroppableRegistry.getRegistry().invalidate();
+                Messager.getMessager().send(Message.DRAG_STARTED, getDraggedNode());
                 isDragging = true;
             }
             @Override
+            protected void drag(PInputEvent e) {
+                super.drag(e);
+                // Highlight the droppable that the node is over.
+                highlight(DroppableRegistry.getRegistry().findDroppable(
+                        e.getPosition(), getDraggedNode()));
+            }
+            private void highlight(Droppable droppable) {
+                if (droppable == highlighted) {
+                    return;
+                }
+                if (highlighted != null) {
+                    highlighted.setHighlighted(false);
+                }
+                highlighted = droppable;
+                if (highlighted != null) {
+                    highlighted.setHighlighted(true);
+                }
+            }
+            @Override
             protected void endDrag(PInputEvent e) {
+                // Find the droppable that was dropped onto.
+                PNode dragNode = getDraggedNode();
+                Droppable droppable = DroppableRegistry.getRegistry()
+                        .findDroppable(e.getPosition(), dragNode);
+                highlight(null);
+
                 // Return the node to its original parent.
-                getDraggedNode().reparent(previousParent);
+                dragNode.reparent(previousParent);
                 
                 // Find the draggable that was dragged.
-                PNode dragNode = getDraggedNode();
                 Draggable draggable = (Draggable)
                                              dragNode.getAttribute("Draggable");
                 if (draggable == null) {
                     System.out.println("Dragged a node that wasn't wrapped in a draggable?");
                 }
                 
-                // Find the droppable that was dropped onto.
-                PPickPath path = e.getInputManager().getMouseOver();
-                PNode dropNode = path.getPickedNode();
-                // The first node under the mouse is going to be the dragged
-                // node, so we move down the pick path until we find the first
-                // picked node that is not the dragged node.
-                while (dropNode == dragNode) {                    
-                    dropNode = path.nextPickedNode();
-                }
-                Droppable droppable = null;
-                if (dropNode != null) {
-                    // Find the Droppable object attached to the dropNode                
-                    droppable = (Droppable) dropNode.getAttribute("Droppable");
-                    while (droppable == null) {
-                        dropNode = path.nextPickedNode();
-                        if (dropNode instanceof PCamera || dropNode == null) { break; }
-                        droppable = (Droppable) dropNode.getAttribute("Droppable");
-                    }
-                }
                 if (droppable == null) {
-                    // No droppable attribute, just return the dragged node to
+                    // Not dropped onto a droppable, just return the dragged node to
                     // where it was dragged from.
                     dragNode.setOffset(startPos);
-                } else {
-                    // Construct a DropEvent to represent the drop.
-                    DropEvent de = new DropEvent(draggable,droppable,e.getPosition());
-                    boolean accepted = droppable.dropped_onto(de);                                        
-                    if (accepted) {
-                        // The droppable accepted the drop, notify observers.                       
-                        // FIXME: should we reparent the draggee's node to the
-                        // droppee's node here? Or leave that up to the
-                        // DroppableOwner to do if it pleases?
-                        draggable.notify_observers(de);
-                        droppable.notify_observers(de);
-                    }
-                    else {
-                        // The Droppable refused the dragged node, just return
-                        // the dragged node to where it came from.
-                        dragNode.setOffset(startPos);
-                    }
+                } else if (!draggable.drop(droppable, e.getPosition())) {
+                    // The Droppable refused the dragged node, just return
+                    // the dragged node to where it came from.
+                    dragNode.setOffset(startPos);
                 }
                 super.endDrag(e);
                 isDragging = false;
@@ -170,6 +166,28 @@ public class Draggable extends DragDropSubject {
         return dragEventHandler;
     }
     
+    /**
+     * Drop this draggable onto a droppable: ask the droppable (and so its
+     * owner) whether it accepts the drop and if it does notify the observers
+     * of this draggable and of the droppable, each observer once. This is
+     * what happens when the user drags and drops the node with the mouse,
+     * except that it doesn't move the node back if the drop is refused.
+     *
+     * @param droppable The droppable to drop onto.
+     * @param position Where the drop happened, in global coordinates.
+     * @return true if the drop was accepted, false if it was refused.
+     */
+    public boolean drop(Droppable droppable, Point2D position) {
+        DropEvent de = new DropEvent(this, droppable, position);
+        if (!droppable.dropped_onto(de)) {
+            return false;
+        }
+        // FIXME: should we reparent the draggee's node to the droppee's node
+        // here? Or leave that up to the DroppableOwner to do if it pleases?
+        notify_observers(de, this, droppable);
+        return true;
+    }
+
     public PNode getNode() {
         return node;
     }
@@ -21,21 +21,36 @@
 package DragAndDrop;
 
 import java.awt.geom.Point2D;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A passive class to record details about a drop event (when a draggable is
  * dropped onto a droppable).
+ *
+ * Each DropEvent has a serial number, higher than that of every DropEvent
+ * created before it, which DragDropSubject uses to tell which observers were
+ * attached before the drop happened.
  * 
  * @author seanh
  */
 public class DropEvent {
+    private static final AtomicLong serials = new AtomicLong();
     private Draggable draggee;
     private Droppable droppee;
     private Point2D position;
+    private final long serial;
     public DropEvent(Draggable draggee, Droppable droppee, Point2D position) {
         this.draggee = draggee;
         this.droppee = droppee;
         this.position = position;
+        this.serial = serials.incrementAndGet();
+    }
+    /**
+     * Return the serial number of the last DropEvent to be created, or 0 if
+     * none have been.
+     */
+    static long lastSerial() {
+        return serials.get();
     }
     public Draggable getDraggee() {
         return draggee;
@@ -46,4 +61,7 @@ public class DropEvent {
     public Point2D getPosition() {
         return position;
     }
+    public long getSerial() {
+        return serial;
+    }
 }
\ No newline at end of file
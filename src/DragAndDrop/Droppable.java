@@ -41,6 +41,11 @@ public class Droppable extends DragDropSubject {
      * delegated to the owner, via the DroppableOwner interface.
      */
     private DroppableOwner owner;
+
+    /**
+     * Whether a draggable is currently being dragged over this droppable.
+     */
+    private boolean highlighted = false;
     
     /**
      * Construct a new Droppable instance.
@@ -62,6 +67,7 @@ public class Droppable extends DragDropSubject {
             this.node = node;
             node.addAttribute("DroppableOwner", owner);
             this.owner = owner;
+            DroppableRegistry.getRegistry().register(this);
         }
     }
     
@@ -78,6 +84,29 @@ public class Droppable extends DragDropSubject {
         return owner.dropped_onto(de);
     }
 
+    /**
+     * Return true if a draggable is currently being dragged over this
+     * droppable.
+     */
+    public boolean isHighlighted() {
+        return highlighted;
+    }
+
+    /**
+     * Called by Draggable when a draggable is dragged onto (true) or off
+     * (false) this droppable. If the owner is a HighlightingDroppableOwner it
+     * is told, so that it can show the droppable as a drop target.
+     */
+    void setHighlighted(boolean highlighted) {
+        if (highlighted == this.highlighted) {
+            return;
+        }
+        this.highlighted = highlighted;
+        if (owner instanceof HighlightingDroppableOwner) {
+            ((HighlightingDroppableOwner) owner).highlight(this, highlighted);
+        }
+    }
+
     public PNode getNode() {
         return node;
     }
@@ -0,0 +1,258 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package DragAndDrop;
+
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.util.PBounds;
+import java.awt.geom.Point2D;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of every droppable and where it is in global coordinates, so
+ * that the droppable under a point can be found directly (see findDroppable)
+ * instead of by walking the Piccolo pick path under the mouse. Draggable uses
+ * this to find the droppable that a node is dropped onto, and the droppable
+ * that a node is being dragged over (which is highlighted, see
+ * Droppable.setHighlighted).
+ *
+ * The global bounds of the droppables' nodes (their own bounds, not their
+ * full bounds, so moving things around inside a droppable doesn't affect the
+ * index) are indexed in a uniform grid of square cells. The index is rebuilt
+ * the next time it's needed after a droppable is created, or a droppable's
+ * node is moved, resized or reparented. Moving an ancestor of a droppable's
+ * node doesn't fire any event that the registry hears, so Draggable calls
+ * invalidate at the start of every drag to catch any such moves since the
+ * last drag.
+ *
+ * Droppables are only weakly referenced, so registering one doesn't stop it
+ * from being garbage collected when the rest of the application has finished
+ * with it. Droppables whose nodes aren't in a scene graph, or aren't
+ * visible, are ignored.
+ *
+ * Like the rest of Piccolo, this should only be used from the event dispatch
+ * thread.
+ *
+ * @author seanh
+ */
+public final class DroppableRegistry {
+
+    private static final DroppableRegistry registry = new DroppableRegistry();
+
+    /**
+     * The width and height of the grid cells, in global coordinates.
+     */
+    private static final double CELL_SIZE = 256;
+
+    /**
+     * A registered droppable, weakly referenced, with the global bounds
+     * of its node when the index was last built (or null if the node wasn't
+     * showing then).
+     */
+    private static final class Entry extends WeakReference<Droppable> {
+
+        /**
+         * The order in which the droppables were registered, used to choose
+         * between overlapping droppables that aren't nested.
+         */
+        final long order;
+
+        PBounds bounds;
+
+        Entry(Droppable droppable, long order) {
+            super(droppable);
+            this.order = order;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * The entries whose bounds overlap each grid cell, keyed by cell (see
+     * key).
+     */
+    private final Map<Long,List<Entry>> cells = new HashMap<Long,List<Entry>>();
+
+    private long registered = 0;
+
+    /**
+     * True if the index needs to be rebuilt before it is next used.
+     */
+    private boolean invalid = true;
+
+    private final PropertyChangeListener invalidator =
+            new PropertyChangeListener() {
+
+        public void propertyChange(PropertyChangeEvent evt) {
+            invalid = true;
+        }
+    };
+
+    private DroppableRegistry() {
+    }
+
+    /**
+     * Return the single DroppableRegistry.
+     */
+    public static DroppableRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Add a droppable to the registry. Called by Droppable's constructor.
+     */
+    void register(Droppable droppable) {
+        entries.add(new Entry(droppable, registered++));
+        PNode node = droppable.getNode();
+        node.addPropertyChangeListener(PNode.PROPERTY_BOUNDS, invalidator);
+        node.addPropertyChangeListener(PNode.PROPERTY_TRANSFORM, invalidator);
+        node.addPropertyChangeListener(PNode.PROPERTY_PARENT, invalidator);
+        node.addPropertyChangeListener(PNode.PROPERTY_VISIBLE, invalidator);
+        invalid = true;
+    }
+
+    /**
+     * Tell the registry that droppables may have moved without it knowing
+     * (for example because an ancestor of their nodes has moved), so that it
+     * rebuilds its index before it is next used.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * Return the droppable whose node is under the given point, in global
+     * coordinates, or null if there isn't one.
+     *
+     * If the point is over more than one droppable then the innermost one is
+     * returned (the one whose node is a descendent of the others' nodes), or
+     * if they aren't nested the one that was created last.
+     *
+     * @param point The point, in global coordinates.
+     * @param dragged The node being dragged, or null. Neither this node nor
+     * any of its descendents will be returned, and only droppables in the
+     * same scene graph as it will be.
+     */
+    public Droppable findDroppable(Point2D point, PNode dragged) {
+        if (invalid) {
+            rebuild();
+        }
+        List<Entry> cell = cells.get(key(cell(point.getX()),
+                cell(point.getY())));
+        if (cell == null) {
+            return null;
+        }
+        PNode root = dragged == null ? null : dragged.getRoot();
+        Droppable found = null;
+        long foundOrder = 0;
+        for (Entry e : cell) {
+            Droppable d = e.get();
+            if (d == null || !e.bounds.contains(point)) {
+                continue;
+            }
+            PNode node = d.getNode();
+            if (!isShowing(node)) {
+                continue;
+            }
+            if (dragged != null && (node == dragged
+                    || node.isDescendentOf(dragged)
+                    || node.getRoot() != root)) {
+                continue;
+            }
+            if (found == null || node.isDescendentOf(found.getNode())
+                    || (e.order > foundOrder
+                        && !found.getNode().isDescendentOf(node))) {
+                found = d;
+                foundOrder = e.order;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rebuild the index from the current global bounds of the droppables'
+     * nodes, forgetting droppables that have been garbage collected.
+     */
+    private void rebuild() {
+        cells.clear();
+        Iterator<Entry> i = entries.iterator();
+        while (i.hasNext()) {
+            Entry e = i.next();
+            Droppable d = e.get();
+            if (d == null) {
+                i.remove();
+                continue;
+            }
+            PNode node = d.getNode();
+            if (!isShowing(node)) {
+                e.bounds = null;
+                continue;
+            }
+            e.bounds = node.getGlobalBounds();
+            int minX = cell(e.bounds.getMinX());
+            int maxX = cell(e.bounds.getMaxX());
+            int minY = cell(e.bounds.getMinY());
+            int maxY = cell(e.bounds.getMaxY());
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    Long key = key(x, y);
+                    List<Entry> cell = cells.get(key);
+                    if (cell == null) {
+                        cell = new ArrayList<Entry>(2);
+                        cells.put(key, cell);
+                    }
+                    cell.add(e);
+                }
+            }
+        }
+        invalid = false;
+    }
+
+    /**
+     * Return true if the node is in a scene graph and it and all of its
+     * ancestors are visible.
+     */
+    private static boolean isShowing(PNode node) {
+        if (node.getRoot() == null) {
+            return false;
+        }
+        for (PNode n = node; n != null; n = n.getParent()) {
+            if (!n.getVisible()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static Long key(int x, int y) {
+        return Long.valueOf(((long) x << 32) | (y & 0xffffffffL));
+    }
+}
@@ -0,0 +1,39 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package DragAndDrop;
+
+/**
+ * A DroppableOwner that also wants to know when a draggable is dragged over
+ * one of its droppables, for example to highlight the droppable as a drop
+ * target.
+ *
+ * @author seanh
+ */
+public interface HighlightingDroppableOwner extends DroppableOwner {
+
+    /**
+     * Called when a draggable is dragged onto (highlighted is true) or off
+     * (highlighted is false) a droppable owned by this owner, or is dropped
+     * while over it (highlighted is false).
+     */
+    public void highlight(Droppable droppable, boolean highlighted);
+
+}
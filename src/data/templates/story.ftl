@@ -1,4 +1,11 @@
 <html>
+<#-- charset is only given when exporting to a file: Swing's HTML editor
+     pane won't display a document that declares its own charset. -->
+<#if charset??>
+<head>
+<meta http-equiv="Content-Type" content="text/html;charset=${charset}">
+</head>
+</#if>
 <body style="font-size:10px; font-family:Arial, Helvetica, sans-serif;">
 
 <h1 style="text-align:center;">${StoryMap.title}</h1>
@@ -20,10 +20,16 @@
 */
 package storymaps;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.TimerTask;
-import java.util.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.Duration;
 import java.util.Date;
@@ -94,6 +100,24 @@ public class Application implements Receiver, Originator {
      * The directory that autosave files will be saved to.
      */
     private File autosavedir;
+    /**
+     * The incremental autosave for this session, kept in autosavedir.
+     */
+    private AutosaveJournal autosaveJournal;
+    /**
+     * The background thread that autosaves are written to disk on. Snapshots
+     * of the story are captured on the Swing event dispatch thread and handed
+     * to this executor, which is the only thread that touches
+     * autosaveJournal.
+     */
+    private final ExecutorService autosaveExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Autosave");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
 
     final private PreviewDialog previewDialog;
 
@@ -138,6 +162,20 @@ public class Application implements Receiver, Originator {
             System.exit(0);
 
         }
+        if (args.length > 2 && args[0].equals("migrate")) {
+            // Convert a story saved by an older version of StoryMaps (as a
+            // serialized memento) into the current story file format.
+            // FIXME: the application still gets loaded here too.
+            try {
+                getInstance().restoreFromMemento(
+                        Util.deserializeObjectFromFile(args[1]));
+                getInstance().writeStoryFile(args[2]);
+                System.exit(0);
+            } catch (Exception e) {
+                System.out.println(e);
+                System.exit(1);
+            }
+        }
     }
 
     /**
@@ -146,7 +184,7 @@ public class Application implements Receiver, Originator {
      */
     private static void export_functions_as_html(String path) {
         try {
-            String html = new TemplateHandler().renderFunctions();
+            String html = TemplateHandler.getInstance().renderFunctions();
             Util.writeTextToFile(html, path);
         } catch (IOException e) {
             System.out.println(e);
@@ -175,6 +213,7 @@ public class Application implements Receiver, Originator {
             Logger.getLogger(getClass().getName()).severe("SecurityException when attempting to create autosave dir, quitting." + e.toString());
             System.exit(1);
         }
+        autosaveJournal = new AutosaveJournal(autosavedir);
 
         // Attach a FileHandler to the root logger that appends all log messages
         // to a file in the autosave dir.
@@ -203,21 +242,27 @@ public class Application implements Receiver, Originator {
             }
         });
 
-        // Start a task that autosaves every 60 seconds.
-        TimerTask autoSave = new TimerTask() {
+        // Autosave every 60 seconds. A Swing timer is used so that the story
+        // is always captured on the event dispatch thread.
+        javax.swing.Timer autoSave = new javax.swing.Timer(60000,
+                new ActionListener() {
 
-            public void run() {
+            public void actionPerformed(ActionEvent e) {
                 autosave();
             }
-        };
-        Timer timer = new Timer();
-        timer.schedule(autoSave, 60000, 60000);
+        });
+        autoSave.start();
 
         // Subscribe to the messages sent by StoryEditor when it is collapsed
-        // and uncollapsed and when the sort button is collapsed.
-        Messager.getMessager().accept("Editor uncollapsed", this, null);
-        Messager.getMessager().accept("Editor collapsed", this, null);
-        Messager.getMessager().accept("sort", this, null);
+        // and uncollapsed and when the sort button is collapsed. These change
+        // the scene graph, so they must be handled on the event dispatch
+        // thread whichever thread sends them.
+        Messager.Delivery edt = Messager.Delivery.EVENT_DISPATCH_THREAD;
+        Messager.getMessager().accept(Message.EDITOR_UNCOLLAPSED, this, null, edt);
+        Messager.getMessager().accept(Message.EDITOR_COLLAPSED, this, null, edt);
+        Messager.getMessager().accept(Message.SORT, this, null, edt);
+        // Make the messager's statistics visible to JConsole etc.
+        Message.registerStatistics();
 
         // Record the time that the application was opened.
         updateStoryOpenedDate();
@@ -234,6 +279,17 @@ public class Application implements Receiver, Originator {
         duration_story_open = datatypeFactory.newDuration(true, 0, 0, 0, 0, 0, 0);
         duration_editor_open = datatypeFactory.newDuration(true, 0, 0, 0, 0, 0, 0);
 
+        // Compile the HTML templates in the background, so that the first
+        // preview or export doesn't have to wait for them.
+        Thread templateWarmUp = new Thread(new Runnable() {
+
+            public void run() {
+                TemplateHandler.getInstance().warmUp();
+            }
+        }, "Template warm-up");
+        templateWarmUp.setDaemon(true);
+        templateWarmUp.start();
+
         makeFrame();
 
         previewDialog = new PreviewDialog(frame);
@@ -252,6 +308,7 @@ public class Application implements Receiver, Originator {
 
             public void windowClosing(WindowEvent arg0) {
                 autosave();
+                finishAutosaving();
                 System.exit(0);
             }
 
@@ -411,6 +468,19 @@ public class Application implements Receiver, Originator {
         target = home;
         repositionCamera();
 
+        // Keep only the story cards that are on screen in the scene graph,
+        // whenever the camera moves or the canvas is resized.
+        PropertyChangeListener viewportListener = new PropertyChangeListener() {
+
+            public void propertyChange(PropertyChangeEvent evt) {
+                updateViewport();
+            }
+        };
+        canvas.getCamera().addPropertyChangeListener(
+                PCamera.PROPERTY_VIEW_TRANSFORM, viewportListener);
+        canvas.getCamera().addPropertyChangeListener(PNode.PROPERTY_BOUNDS,
+                viewportListener);
+
         canvas.getCamera().addInputEventListener(new PBasicInputEventHandler() {
 
             @Override
@@ -424,7 +494,14 @@ public class Application implements Receiver, Originator {
         // Listen for 'clicked' messages from story cards (the receive method
         // will be called), this is how we make RMB zoom in on cards.
         Messager m = Messager.getMessager();
-        m.accept("StoryCard double-clicked", this, null);
+        m.accept(Message.STORY_CARD_DOUBLE_CLICKED, this, null);
+    }
+
+    /**
+     * Tell the story map which part of it is on screen.
+     */
+    private void updateViewport() {
+        map.setViewport(canvas.getCamera().getViewBounds());
     }
 
     private void zoomToHome() {
@@ -440,52 +517,54 @@ public class Application implements Receiver, Originator {
     /**
      * Receive messages from the global singleton Messager object.
      */
-    public void receive(String name, Object receiver_arg, Object sender_arg) {
-        if (name.equals("StoryCard double-clicked")) {
+    public void receive(Message message, Object receiver_arg, Object sender_arg) {
+        if (message == Message.STORY_CARD_DOUBLE_CLICKED) {
             /*StoryCardBase card = (StoryCardBase) sender_arg;
             PNode node = card.getNode();
             StoryCardBase prev = (StoryCardBase) target.getAttribute("StoryCardBase");
             target = node;
             repositionCamera(750);*/
-        } else if (name.equals("Editor uncollapsed")) {
+        } else if (message == Message.EDITOR_UNCOLLAPSED) {
             // Add cards back and reposition camera.
             cards.getNode().removeFromParent();
             target = home; // Just to make sure.
             // Since swing is about to resize the PCanvas we don't want
             // to reposition the camera immediately. Instead schedule it to
             // happen one tenth of a second from now.
-            TimerTask zoom = new TimerTask() {
-
-                public void run() {
-                    repositionCamera(750);
-                }
-            };
-            Timer timer = new Timer();
-            timer.schedule(zoom, 100);
+            repositionCameraLater(100);
             // Record what time the editor was opened.
             updateEditorOpenedDate();
-        } else if (name.equals("Editor collapsed")) {
+        } else if (message == Message.EDITOR_COLLAPSED) {
             // Remove cards from scene graph and reposition camera
             home.addChild(cards.getNode());
             target = home; // Just to make sure.
             // Since swing is about to resize the PCanvas we don't want
             // to reposition the camera immediately. Instead schedule it to
             // happen one tenth of a second from now.
-            TimerTask zoom = new TimerTask() {
-
-                public void run() {
-                    repositionCamera(750);
-                }
-            };
-            Timer timer = new Timer();
-            timer.schedule(zoom, 100);
+            repositionCameraLater(100);
             // Record the duration of time that the editor was open for.
             updateEditorClosedDate();
-        } else if (name.equals("sort")) {
+        } else if (message == Message.SORT) {
             map.sort();
         }
     }
 
+    /**
+     * Reposition the camera (see repositionCamera) on the event dispatch
+     * thread after the given delay in milliseconds.
+     */
+    private void repositionCameraLater(int delay) {
+        javax.swing.Timer timer = new javax.swing.Timer(delay,
+                new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                repositionCamera(750);
+            }
+        });
+        timer.setRepeats(false);
+        timer.start();
+    }
+
     /**
      * If the PNode field target is not null, reposition the camera to focus on
      * that node. (Used to correct the focus when the piccolo component is
@@ -526,10 +605,23 @@ public class Application implements Receiver, Originator {
     private void open() {
         int returnVal = fc_saveopen.showOpenDialog(frame);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
-            String filename = fc_saveopen.getSelectedFile().getAbsolutePath();
+            File file = fc_saveopen.getSelectedFile();
+            String filename = file.getAbsolutePath();
             try {
-                Object m = Util.deserializeObjectFromFile(filename);
-                restoreFromMemento(m);
+                long start = System.nanoTime();
+                if (!StoryFile.isStoryFile(filename)) {
+                    // A story saved by an older version of StoryMaps as a
+                    // serialized memento. It will be written in the current
+                    // format the next time it's saved.
+                    restoreFromMemento(Util.deserializeObjectFromFile(filename));
+                } else if (file.getName().equals(AutosaveJournal.BASE_FILENAME)) {
+                    // An autosave base snapshot, replay its journal too.
+                    AutosaveJournal journal = new AutosaveJournal(file.getParentFile());
+                    restoreFromSnapshot(journal.recover());
+                } else {
+                    restoreFromStoryFile(StoryFile.read(filename));
+                }
+                Logger.getLogger(getClass().getName()).info("Opened " + filename + " (" + file.length() + " bytes) in " + (System.nanoTime() - start) / 1000000 + "ms.");
             } catch (IOException e) {
                 // FIXME: display a friendly message to the user via the GUI,
                 // print the exception itself to stderr and log it to an errors
@@ -558,21 +650,50 @@ public class Application implements Receiver, Originator {
     }
 
     /**
-     * Save the current state of the application in the autosave dir with a
-     * filename constructed from the current system time.
+     * Capture a snapshot of the story and queue it to be saved to the
+     * autosave journal in the autosave dir. Nothing is written if the story
+     * hasn't changed.
+     *
+     * Must be called on the event dispatch thread. The snapshot is immutable,
+     * so it stays consistent while it is written out in the background.
      */
     private void autosave() {
-        String now = Util.nowStr();
-        File save = new File(autosavedir, now + ".storymap");
-        String filename = save.getAbsolutePath();
-        Memento memento = createMemento();
+        updateDurations();
+        final StorySnapshot snapshot = createSnapshot();
+        autosaveExecutor.execute(new Runnable() {
+            public void run() {
+                writeAutosave(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Wait (for a limited time) for any queued autosaves to be written.
+     */
+    private void finishAutosaving() {
+        autosaveExecutor.shutdown();
         try {
-            Util.serializeObjectToFile(filename, memento);
+            if (!autosaveExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                Logger.getLogger(getClass().getName()).warning("Timed out waiting for autosave to finish.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write a snapshot to the autosave journal. Called on the autosave thread.
+     */
+    private void writeAutosave(StorySnapshot snapshot) {
+        try {
+            if (autosaveJournal.save(snapshot)) {
+                Logger.getLogger(getClass().getName()).fine("Autosaved story.");
+            }
         } catch (IOException e) {
             // FIXME: display a friendly message to the user via the GUI, print
             // the exception itself to stderr and append it to an errors log
             // file.
-            System.out.println("Application.autosave(): IOError when writing to path: " + filename);
+            System.out.println("Application.autosave(): IOError when writing to autosave dir: " + autosavedir);
             System.out.println(e);
         }
     }
@@ -588,7 +709,7 @@ public class Application implements Receiver, Originator {
                 if (!path.endsWith(".storymap")) {
                     path = path + ".storymap";
                 }
-                Util.serializeObjectToFile(path, createMemento());
+                writeStoryFile(path);
             } catch (IOException e) {
                 // FIXME: display a more friendly message to the user via the
                 // GUI, print the exception itself to stderr and append it to an
@@ -601,6 +722,21 @@ public class Application implements Receiver, Originator {
         }
     }
 
+    /**
+     * Write the story to a story file at the given canonical and absolute
+     * system path.
+     */
+    private void writeStoryFile(String path) throws IOException {
+        long start = System.nanoTime();
+        updateDurations();
+        Date epoch = new Date(0);
+        StoryFile f = new StoryFile(createSnapshot(),
+                duration_story_open.getTimeInMillis(epoch),
+                duration_editor_open.getTimeInMillis(epoch));
+        f.write(path, true);
+        Logger.getLogger(getClass().getName()).info("Saved " + path + " (" + new File(path).length() + " bytes) in " + (System.nanoTime() - start) / 1000000 + "ms.");
+    }
+
     void saveAsHTML() {
         previewDialog.saveAsHTML(map);
     }
@@ -639,6 +775,20 @@ public class Application implements Receiver, Originator {
     }
 
     // Methods for updating the application-open and editor-open durations.
+
+    /**
+     * Bring the story-open and (if the editor is open) editor-open durations
+     * up to date.
+     */
+    private void updateDurations() {
+        updateStoryClosedDate();
+        updateStoryOpenedDate();
+        if (!editor.isCollapsed()) {
+            updateEditorClosedDate();
+            updateEditorOpenedDate();
+        }
+    }
+
     private void updateStoryOpenedDate() {
         date_story_opened = new Date();
         Logger.getLogger(getClass().getName()).info("Reset story opened date to: " + date_story_opened);
@@ -689,15 +839,10 @@ public class Application implements Receiver, Originator {
         ApplicationMemento(Application a) {
             this.storyCardsMemento = a.cards.createMemento();
             this.storyMapMemento = a.map.createMemento();
-            // Log the story open duration and reset the opened date.
-            a.updateStoryClosedDate();
-            a.updateStoryOpenedDate();
+            // Log the story and editor open durations and reset the opened
+            // dates.
+            a.updateDurations();
             this.duration_app_open = a.duration_story_open;
-            // If the editor is uncollapsed log the editor open duration.
-            if (!a.editor.isCollapsed()) {
-                a.updateEditorClosedDate();
-                a.updateEditorOpenedDate();
-            }
             this.duration_editor_open = a.duration_editor_open;
         }
 
@@ -749,18 +894,8 @@ public class Application implements Receiver, Originator {
         }
         ApplicationMemento am = (ApplicationMemento) m;
 
-        // FIXME: is this enough to really dispose of cards? Might be a memory
-        // leak here.
-        cards.getNode().removeFromParent();
-        cards = StoryCards.newInstanceFromMemento(am.getStoryCardsMemento());
-        home.addChild(cards.getNode());
-
-        // FIXME: is this enough to really dispose of map? Might be a memory
-        // leak here.
-        map.getNode().removeFromParent();
-        map = StoryMap.newInstanceFromMemento(am.getStoryMapMemento());
-        home.addChild(map.getNode());
-        target = home;
+        replaceStory(StoryCards.newInstanceFromMemento(am.getStoryCardsMemento()),
+                StoryMap.newInstanceFromMemento(am.getStoryMapMemento()));
 
         // Restore the durations and reset the app opened date.
         duration_story_open = am.getDurationAppOpen();
@@ -770,4 +905,117 @@ public class Application implements Receiver, Originator {
             updateEditorOpenedDate();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Replace the current card store and story map with new ones.
+     */
+    private void replaceStory(StoryCards newCards, StoryMap newMap) {
+        StorySwap.replace(home, cards, map, newCards, newMap);
+        cards = newCards;
+        map = newMap;
+        updateViewport();
+        target = home;
+    }
+
+    /**
+     * The part of replacing the story that doesn't need the Application
+     * instance, so that it can be run without a frame (see RestoreLeakCheck).
+     * It's a class of its own because calling a static method of Application
+     * would create the Application singleton.
+     */
+    static final class StorySwap {
+
+        private StorySwap() {
+        }
+
+        /**
+         * Replace the old card store and story map, which are children of
+         * parent, with the new ones, and disconnect the old map from the
+         * messager.
+         */
+        static void replace(PNode parent, StoryCards oldCards, StoryMap oldMap,
+                StoryCards newCards, StoryMap newMap) {
+            // The messager only holds weak references to its receivers, so the
+            // old cards and map are garbage collected once they're out of the
+            // scene graph. But the old map would receive button clicks until
+            // then. (The old cards only receive their own nodes' drags, which
+            // can't happen any more.)
+            Messager.getMessager().ignoreAll(oldMap);
+
+            oldCards.getNode().removeFromParent();
+            parent.addChild(newCards.getNode());
+
+            oldMap.getNode().removeFromParent();
+            parent.addChild(newMap.getNode());
+        }
+    }
+
+    /**
+     * Restore the story and the story-open and editor-open durations from a
+     * story file.
+     *
+     * @throws storymaps.MementoException if the story file refers to a
+     * function that doesn't exist.
+     */
+    void restoreFromStoryFile(StoryFile f) throws MementoException {
+        restoreFromSnapshot(f.getSnapshot());
+        duration_story_open = datatypeFactory.newDuration(f.getStoryOpenMillis());
+        updateStoryOpenedDate();
+        duration_editor_open = datatypeFactory.newDuration(f.getEditorOpenMillis());
+        if (!editor.isCollapsed()) {
+            updateEditorOpenedDate();
+        }
+    }
+
+    /**
+     * Return a StorySnapshot of the current content of the story.
+     */
+    StorySnapshot createSnapshot() {
+        return StorySnapshot.capture(editor.getTitle(), map.getPlaceholders(),
+                cards.getStoryCards());
+    }
+
+    /**
+     * Restore the story to the content recorded in the given snapshot. The
+     * card store and story map keep their current size and position.
+     *
+     * @throws storymaps.MementoException if the snapshot refers to a function
+     * that doesn't exist.
+     */
+    void restoreFromSnapshot(StorySnapshot s) throws MementoException {
+        List<DisabledStoryCard> disabledStoryCards = new ArrayList<DisabledStoryCard>();
+        for (Function f : Function.getFunctions()) {
+            DisabledStoryCard dsc = new DisabledStoryCard(f);
+            if (s.findSlot(f.getNumber()) == StorySnapshot.EMPTY) {
+                dsc.setStoryCard(new StoryCard(f, s.getText(f.getNumber())));
+            }
+            disabledStoryCards.add(dsc);
+        }
+        List<Placeholder> placeholders = new ArrayList<Placeholder>();
+        for (int i = 0; i < s.getSlotCount(); i++) {
+            Placeholder p = new Placeholder();
+            int number = s.getSlot(i);
+            if (number != StorySnapshot.EMPTY) {
+                Function f = Function.getFunction(number);
+                if (f == null) {
+                    String detail = "Unknown function number in snapshot: " + number;
+                    MementoException e = new MementoException(detail);
+                    Logger.getLogger(getClass().getName()).throwing("Application", "restoreFromSnapshot", e);
+                    throw e;
+                }
+                p.setStoryCard(new StoryCard(f, s.getText(number)));
+            }
+            placeholders.add(p);
+        }
+        PNode c = cards.getNode();
+        PNode m = map.getNode();
+        StoryCards newCards = new StoryCards(c.getWidth(), c.getHeight(),
+                c.getXOffset(), c.getYOffset(), cards.getColor(),
+                disabledStoryCards);
+        StoryMap newMap = new StoryMap(editor, placeholders, m.getWidth(),
+                m.getHeight(), m.getXOffset(), m.getYOffset(), map.getColor());
+        replaceStory(newCards, newMap);
+        editor.update(newMap.getStoryCards());
+        editor.setTitle(s.getTitle());
+    }
+}
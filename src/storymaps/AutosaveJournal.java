@@ -0,0 +1,275 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Incremental autosave for a story.
+ *
+ * An AutosaveJournal keeps two files in its directory: a base snapshot of the
+ * story (a compressed StoryFile), and an append-only journal of the StoryChanges that have been made
+ * since the base snapshot was written. Each call to save appends only the
+ * changes since the previous save, and writes nothing at all if the story
+ * hasn't changed. Once the journal has grown long enough it is compacted: a
+ * new base snapshot is written and the journal is started afresh.
+ *
+ * The journal begins with the hash code of the base snapshot that it applies
+ * to, so that a journal left behind by a crash part-way through compacting is
+ * never replayed onto the wrong base. Every write is forced to disk before
+ * save returns.
+ *
+ * A new base snapshot is written to a temporary file, which replaces the old
+ * base once it is complete. If a crash leaves the temporary file but no base
+ * (after the old base was deleted but before the temporary file was renamed)
+ * then recover reads the temporary file instead.
+ *
+ * AutosaveJournal is not thread-safe. Application captures snapshots on the
+ * event dispatch thread and only ever calls save from its single autosave
+ * thread, so disk writes never block the user interface.
+ *
+ * @author seanh
+ */
+final class AutosaveJournal {
+
+    /**
+     * The name of the base snapshot file.
+     */
+    static final String BASE_FILENAME = "autosave.storymap";
+
+    /**
+     * The name of the journal file.
+     */
+    static final String JOURNAL_FILENAME = "autosave.journal";
+
+    /**
+     * The number of journal entries after which the journal is compacted.
+     */
+    private static final int COMPACT_AFTER = 200;
+
+    private static final int MAGIC = 0x534d4a31; // "SMJ1"
+
+    private final File base;
+    private final File tmp;
+    private final File journal;
+
+    /**
+     * The snapshot most recently saved, or null if nothing has been saved yet.
+     */
+    private StorySnapshot last = null;
+
+    /**
+     * The number of entries in the journal file.
+     */
+    private int entries = 0;
+
+    AutosaveJournal(File dir) {
+        this.base = new File(dir, BASE_FILENAME);
+        this.tmp = new File(dir, BASE_FILENAME + ".tmp");
+        this.journal = new File(dir, JOURNAL_FILENAME);
+    }
+
+    /**
+     * Save the given snapshot, if it differs from the one last saved.
+     *
+     * @return true if anything was written, false if nothing had changed.
+     * @throws java.io.IOException
+     */
+    boolean save(StorySnapshot snapshot) throws IOException {
+        if (snapshot.equals(last)) {
+            return false;
+        }
+        if (last == null || entries >= COMPACT_AFTER) {
+            compact(snapshot);
+        } else {
+            List<StoryChange> changes = snapshot.changesSince(last);
+            append(changes);
+            entries += changes.size();
+        }
+        last = snapshot;
+        return true;
+    }
+
+    /**
+     * Write snapshot as the new base snapshot and start a new, empty journal.
+     */
+    private void compact(StorySnapshot snapshot) throws IOException {
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            // Durations aren't autosaved, only the content of the story.
+            StoryFileWriter writer = new StoryFileWriter(
+                    new BufferedOutputStream(fos), true);
+            try {
+                writer.write(new StoryFile(snapshot, 0, 0));
+                writer.finish();
+            } finally {
+                writer.end();
+            }
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        // File.renameTo won't replace an existing file on all platforms.
+        if (base.exists() && !base.delete()) {
+            throw new IOException("Could not delete old autosave base: " + base);
+        }
+        if (!tmp.renameTo(base)) {
+            throw new IOException("Could not rename autosave base: " + tmp);
+        }
+        FileOutputStream journalOut = new FileOutputStream(journal, false);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(journalOut));
+            out.writeInt(MAGIC);
+            out.writeInt(snapshot.hashCode());
+            out.flush();
+            journalOut.getFD().sync();
+        } finally {
+            journalOut.close();
+        }
+        entries = 0;
+        Logger.getLogger(getClass().getName()).fine("Compacted autosave journal.");
+    }
+
+    private void append(List<StoryChange> changes) throws IOException {
+        FileOutputStream journalOut = new FileOutputStream(journal, true);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(journalOut));
+            for (StoryChange c : changes) {
+                writeChange(out, c);
+            }
+            out.flush();
+            journalOut.getFD().sync();
+        } finally {
+            journalOut.close();
+        }
+    }
+
+    private static void writeChange(DataOutputStream out, StoryChange c)
+            throws IOException {
+        out.writeByte(c.getKind().ordinal());
+        switch (c.getKind()) {
+            case TITLE:
+                writeString(out, c.getText());
+                break;
+            case PLACED:
+            case MOVED:
+                out.writeInt(c.getFunction());
+                out.writeInt(c.getSlot());
+                break;
+            case REMOVED:
+                out.writeInt(c.getFunction());
+                break;
+            case TEXT:
+                out.writeInt(c.getFunction());
+                writeString(out, c.getText());
+                break;
+        }
+    }
+
+    private static StoryChange readChange(DataInputStream in)
+            throws IOException {
+        int kind = in.readUnsignedByte();
+        StoryChange.Kind[] kinds = StoryChange.Kind.values();
+        if (kind >= kinds.length) {
+            throw new IOException("Unknown autosave journal entry: " + kind);
+        }
+        switch (kinds[kind]) {
+            case TITLE:
+                return StoryChange.titleChanged(readString(in));
+            case PLACED:
+                return StoryChange.placed(in.readInt(), in.readInt());
+            case MOVED:
+                return StoryChange.moved(in.readInt(), in.readInt());
+            case REMOVED:
+                return StoryChange.removed(in.readInt());
+            default:
+                return StoryChange.textEdited(in.readInt(), readString(in));
+        }
+    }
+
+    // DataOutputStream.writeUTF can't write strings longer than 64K, so
+    // strings are written as a length followed by UTF-8 bytes.
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length in autosave journal.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Read the base snapshot and replay the journal onto it, returning the
+     * most recently autosaved state of the story.
+     *
+     * A truncated entry at the end of the journal (e.g. if the application
+     * crashed while writing it) is ignored. If there is no base snapshot but
+     * there is a temporary one then compacting was interrupted after the
+     * temporary base was forced to disk, so it is used as the base.
+     *
+     * @throws java.io.IOException if the base snapshot can't be read.
+     */
+    StorySnapshot recover() throws IOException {
+        File from = !base.exists() && tmp.exists() ? tmp : base;
+        StorySnapshot snapshot =
+                StoryFile.read(from.getAbsolutePath()).getSnapshot();
+        if (!journal.exists()) {
+            return snapshot;
+        }
+        List<StoryChange> changes = new ArrayList<StoryChange>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journal)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != snapshot.hashCode()) {
+                Logger.getLogger(getClass().getName()).warning("Autosave journal does not match base snapshot, ignoring it.");
+                return snapshot;
+            }
+            while (true) {
+                changes.add(readChange(in));
+            }
+        } catch (EOFException e) {
+            // End of the journal, or a truncated final entry.
+        } finally {
+            in.close();
+        }
+        return snapshot.apply(changes);
+    }
+}
@@ -0,0 +1,254 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+
+/**
+ * Exports images of story cards as PNG files, for the HTML export.
+ *
+ * Rendering a story card's Piccolo node to an image has to happen on the
+ * event dispatch thread, but encoding the image as a PNG is slow and doesn't,
+ * so export renders the images on the calling thread (which should be the
+ * event dispatch thread) and then encodes and writes them on a small pool of
+ * background threads.
+ *
+ * Encoded PNGs are cached by a hash of their pixels, so a card that looks
+ * exactly the same as one that has already been exported (in this export or
+ * an earlier one) is written out without being encoded again.
+ *
+ * @author seanh
+ */
+final class CardImageExporter {
+
+    /**
+     * The maximum number of images that are encoded at the same time.
+     */
+    private static final int THREADS = Math.max(1,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The maximum number of encoded PNGs to keep in the cache.
+     */
+    private static final int MAX_CACHED_IMAGES = 128;
+
+    private final Logger logger = Logger.getLogger(getClass().getName());
+
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Maps the hash of an image's pixels (see hash) to the image encoded as a
+     * PNG, least recently used first.
+     */
+    private final Map<String,byte[]> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String,byte[]>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,byte[]> eldest) {
+            return size() > MAX_CACHED_IMAGES;
+        }
+    });
+
+    CardImageExporter() {
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Image export");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Don't keep idle threads around between exports.
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Told when an export has finished.
+     */
+    interface Listener {
+
+        /**
+         * Called on the event dispatch thread once every image of an export
+         * has been written, has failed to be written or has been skipped
+         * because the export was canceled.
+         *
+         * @param written The number of images written.
+         * @param failed The number of images that couldn't be written (why is
+         * logged).
+         * @param canceled Whether the export was canceled from its progress
+         * monitor.
+         */
+        void exported(int written, int failed, boolean canceled);
+    }
+
+    /**
+     * Export an image of each of the given story cards to a PNG file in dir,
+     * named after the card's function's image file. Must be called on the
+     * event dispatch thread. Returns as soon as the images have been
+     * rendered, the images are encoded and written in the background.
+     *
+     * The progress monitor is only used on the event dispatch thread, so the
+     * background threads only notice that the export has been canceled when
+     * the progress of an earlier image is reported.
+     *
+     * @param cards The story cards to export.
+     * @param dir The directory to write the PNG files to.
+     * @param monitor A progress monitor to report progress to and to check
+     * for cancellation, or null.
+     * @param listener Told when the export has finished, or null.
+     */
+    void export(List<StoryCard> cards, File dir, final ProgressMonitor monitor,
+            final Listener listener) {
+        final int total = cards.size();
+        if (monitor != null) {
+            monitor.setMinimum(0);
+            monitor.setMaximum(total);
+        }
+        final AtomicBoolean canceled = new AtomicBoolean();
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        // Called on the event dispatch thread once for each image, after the
+        // image has been dealt with.
+        final Runnable progress = new Runnable() {
+
+            private int done = 0;
+
+            public void run() {
+                done++;
+                if (monitor != null) {
+                    if (monitor.isCanceled()) {
+                        canceled.set(true);
+                    }
+                    monitor.setProgress(done);
+                }
+                if (done == total && listener != null) {
+                    listener.exported(written.get(), failed.get(),
+                            canceled.get());
+                }
+            }
+        };
+        if (total == 0 && listener != null) {
+            listener.exported(0, 0, false);
+        }
+        for (StoryCard s : cards) {
+            final BufferedImage image =
+                    Util.toBufferedImage(s.getNode().toImage());
+            final File file = new File(dir, s.getFunction().getImageFilename());
+            pool.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        if (!canceled.get()) {
+                            write(image, file);
+                            written.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        logger.warning("IOException when exporting story card image to file." + e.toString());
+                    } finally {
+                        SwingUtilities.invokeLater(progress);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Write an image to a PNG file, encoding it only if an identical image
+     * isn't already in the cache.
+     */
+    private void write(BufferedImage image, File file) throws IOException {
+        String key = hash(image);
+        byte[] png = cache.get(key);
+        if (png == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, "png", bytes)) {
+                throw new IOException("No PNG writer for image " + image);
+            }
+            png = bytes.toByteArray();
+            cache.put(key, png);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(png);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Return a hash of an image's size and pixels.
+     */
+    private static String hash(BufferedImage image) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new AssertionError(e);
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] row = new int[w];
+        byte[] bytes = new byte[4 * w];
+        digest.update(toBytes(new int[] {w, h}, new byte[8]));
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            digest.update(toBytes(row, bytes));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] toBytes(int[] ints, byte[] bytes) {
+        for (int i = 0; i < ints.length; i++) {
+            bytes[4 * i] = (byte) (ints[i] >>> 24);
+            bytes[4 * i + 1] = (byte) (ints[i] >>> 16);
+            bytes[4 * i + 2] = (byte) (ints[i] >>> 8);
+            bytes[4 * i + 3] = (byte) ints[i];
+        }
+        return bytes;
+    }
+}
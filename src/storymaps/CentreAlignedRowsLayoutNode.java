@@ -25,6 +25,7 @@ import edu.umd.cs.piccolo.PNode;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A layout node that lays its children out in multiple centre-aligned rows. The
@@ -33,16 +34,31 @@ import java.util.ArrayList;
  * every row, so you probably want to call setBounds() after constructing the
  * layout node.
  *
+ * The layout is incremental: it remembers the rows it packed the children
+ * into last time, and re-packs only from the row that held the first changed
+ * child (see LayoutNode), stopping as soon as a row starts at the same child
+ * and height as it did before (from there on the rows are the same as last
+ * time). Changing the bounds of the layout node lays out every row again.
+ *
  * @author seanh
  */
-public class CentreAlignedRowsLayoutNode extends PNode {
+public class CentreAlignedRowsLayoutNode extends LayoutNode {
 
     /**
      * The size of the gap between each node.
      */
     private double margin;
 
-    private int prev_num_children = 0;
+    /**
+     * The rows at the last layout: the index of the first child in each row
+     * and the y offset of the top of the row. Only the first rowCount entries
+     * are used. The spare arrays are swapped with these during a layout.
+     */
+    private int[] rowStarts = new int[4];
+    private double[] rowTops = new double[4];
+    private int rowCount = 0;
+    private int[] spareRowStarts = new int[4];
+    private double[] spareRowTops = new double[4];
 
     public CentreAlignedRowsLayoutNode(double margin) {
         this.margin = margin;
@@ -52,24 +68,6 @@ public class CentreAlignedRowsLayoutNode extends PNode {
         return margin;
     }
 
-    /**
-     * Return the length of a given row (list of PNodes).
-     *
-     * The length is computed by summing the widths of all the PNodes and adding
-     * this.margin in-between each pair of PNodes.
-     */
-    private double widthOfRow(List<PNode> row) {
-        double width = 2 * margin;
-        for (PNode p : row) {
-            width += p.getFullBounds().getWidth() + margin;
-        }
-        if (row.size() >= 1) {
-            // Margin will have been added one time too many.
-            width = width - margin;
-        }
-        return width;
-    }
-
     /**
      * Position `node` so that the top-left corner of its full bounds is at
      * (xoffset,yoffset).
@@ -77,15 +75,9 @@ public class CentreAlignedRowsLayoutNode extends PNode {
      */
     private void offsetNode(PNode node, double xoffset, double yoffset) {
         // Find the (left,top) position of the node's full bounds.
-        PBounds b = node.getFullBounds();
-        double left = b.getCenterX() - (b.getWidth() * 0.5);
-        double top = b.getCenterY() - (b.getHeight() * 0.5);
-        // How far from left to the desired xoffset?
-        double x = xoffset - left;
-        // How far from top to the desired yoffset?
-        double y = yoffset - top;
-        // Move the node by the necessary amount.
-        node.translate(x,y);
+        PBounds b = node.getFullBoundsReference();
+        // Move the node by the distance from there to (xoffset,yoffset).
+        translateChild(node, xoffset - b.getX(), yoffset - b.getY());
     }
 
      /**
@@ -100,55 +92,117 @@ public class CentreAlignedRowsLayoutNode extends PNode {
     }
 
     @Override
-    protected void layoutChildren() {
-        // We only recompute the layout if a child node has been added or
-        // removed (and not if one has just moved or changed size).
-        if (getChildrenCount() == prev_num_children) {
-            return;
-        }
-        else {
-            prev_num_children = getChildrenCount();
+    protected void layout(int from, int to, int shift) {
+        int n = getChildrenCount();
+        PBounds bounds = getBoundsReference();
+        double maxWidthOfRow = bounds.getWidth();
+        double middle = bounds.getX() + 0.5 * maxWidthOfRow;
+        if (from == 0 && to == n) {
+            // Everything may have changed, including our bounds.
+            rowCount = 0;
         }
-        // layoutGrid is called to position all the child nodes of the
-        // background node within the bounds of the background node.
-
-        // Sort all the children of this container into rows that fit within the
-        // width of the container.
-        ArrayList<ArrayList<PNode>> rows = new ArrayList<ArrayList<PNode>>();
-        ArrayList<PNode> firstRow = new ArrayList<PNode>();
-        rows.add(firstRow);
-        double maxWidthOfRow = getBounds().getWidth();
-        for (PNode child : getChildren()) {
-            ArrayList<PNode> currentRow = rows.get(rows.size()-1);
-            if (widthOfRow(currentRow) + margin + child.getFullBounds().getWidth() >= maxWidthOfRow) {
-                currentRow = new ArrayList<PNode>();
-                rows.add(currentRow);
-            }
-            currentRow.add(child);
-        }
-
-        // Set the offsets of the children of this node, row by row, child by
-        // child.
-        double yoffset = margin;
-        for (ArrayList<PNode> row : rows) {
-            double width = widthOfRow(row);
 
-            // Set xoffset of children in this row. While we do it figure out
-            // the height of the tallest child so we can increment yoffset for
-            // next time.
-            double middle = getBounds().getX() + 0.5*getBounds().getWidth();
+        // The rows before the one that held the first changed child stay as
+        // they are, re-pack the children from the start of that row on. (If
+        // the changed child started a row, the row before it is re-packed too
+        // in case the child now fits on the end of it.)
+        int firstRow = rowContaining(Math.max(from - 1, 0));
+        int oldRowCount = rowCount;
+        int[] oldStarts = rowStarts;
+        double[] oldTops = rowTops;
+        rowStarts = spareRowStarts;
+        rowTops = spareRowTops;
+        spareRowStarts = oldStarts;
+        spareRowTops = oldTops;
+        ensureRowCapacity(firstRow);
+        System.arraycopy(oldStarts, 0, rowStarts, 0, firstRow);
+        System.arraycopy(oldTops, 0, rowTops, 0, firstRow);
+        rowCount = firstRow;
+
+        int i = firstRow < oldRowCount ? oldStarts[firstRow] : 0;
+        double yoffset = firstRow < oldRowCount ? oldTops[firstRow] : margin;
+        int oldRow = firstRow;
+        while (i < n) {
+            // If this row starts with one of the unchanged children at the
+            // end, at the same child and height as a row did last time, then
+            // it and the rows after it are the same as last time.
+            if (i >= to) {
+                int old = i - shift;
+                while (oldRow < oldRowCount && oldStarts[oldRow] < old) {
+                    oldRow++;
+                }
+                if (oldRow < oldRowCount && oldStarts[oldRow] == old
+                        && oldTops[oldRow] == yoffset) {
+                    int rest = oldRowCount - oldRow;
+                    ensureRowCapacity(rowCount + rest);
+                    for (int r = 0; r < rest; r++) {
+                        rowStarts[rowCount + r] = oldStarts[oldRow + r] + shift;
+                        rowTops[rowCount + r] = oldTops[oldRow + r];
+                    }
+                    rowCount += rest;
+                    break;
+                }
+            }
+            // Fill a row with children until the next one doesn't fit,
+            // keeping a running total of the row's width.
+            int end = i + 1;
+            double width = 2 * margin + getChildWidth(i);
+            while (end < n
+                    && width + margin + getChildWidth(end) < maxWidthOfRow) {
+                width += margin + getChildWidth(end);
+                end++;
+            }
+            ensureRowCapacity(rowCount + 1);
+            rowStarts[rowCount] = i;
+            rowTops[rowCount] = yoffset;
+            rowCount++;
+
+            // Set the offsets of the children in this row. While we do it
+            // figure out the height of the tallest child so we can increment
+            // yoffset for the next row.
             double xoffset = middle - 0.5 * width;
             double max_height = 0;
-            for (PNode child : row) {
-                offsetNode(child, xoffset, yoffset);
-                xoffset += child.getFullBounds().getWidth() + margin;
-                if (child.getFullBounds().getHeight() > max_height) {
-                    max_height = child.getFullBounds().getHeight();
+            for (int j = i; j < end; j++) {
+                offsetNode(getChild(j), xoffset, yoffset);
+                xoffset += getChildWidth(j) + margin;
+                if (getChildHeight(j) > max_height) {
+                    max_height = getChildHeight(j);
                 }
             }
             yoffset += max_height + margin;
+            i = end;
+        }
+    }
+
+    /**
+     * Return the index of the row that held the child at index i at the last
+     * layout, or the last row if i is past the last child (or 0 if there are
+     * no rows).
+     */
+    private int rowContaining(int i) {
+        int low = 0;
+        int high = rowCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rowStarts[mid] <= i) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(low, 0);
+    }
+
+    private void ensureRowCapacity(int n) {
+        if (n > rowStarts.length) {
+            int length = Math.max(n, 2 * rowStarts.length);
+            rowStarts = Arrays.copyOf(rowStarts, length);
+            rowTops = Arrays.copyOf(rowTops, length);
+        }
+        if (n > spareRowStarts.length) {
+            int length = Math.max(n, 2 * spareRowStarts.length);
+            spareRowStarts = Arrays.copyOf(spareRowStarts, length);
+            spareRowTops = Arrays.copyOf(spareRowTops, length);
         }
-        // At this point yoffset is equal to the total height of the container's
-        // contents.
     }
-}
\ No newline at end of file
+}
@@ -60,7 +60,7 @@ class DisabledStoryCard extends StoryCardBase implements Originator {
                     // If the StoryCard is double-clicked with the left mouse
                     // button send the "StoryCard double-clicked" message.
                     Messager m = Messager.getMessager();
-                    m.send("StoryCard double-clicked", DisabledStoryCard.this);                
+                    m.send(Message.STORY_CARD_DOUBLE_CLICKED, DisabledStoryCard.this);                
                     //goToHighDetail();
                     event.setHandled(true);
                 }
@@ -25,7 +25,10 @@ import com.google.gson.*;
 import java.awt.Image;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -35,12 +38,15 @@ import java.util.logging.Logger;
  * The Function class has a public static member functions that is a list of all
  * functions read in from the functions.xml file by XStream.
  * 
- * Function objects are also created when saved stories are read in from file,
- * so it is possible to have more than one Function object with the same fields,
- * or even with some fields the same but others different.
+ * There is only ever one Function object for each function number: when a
+ * saved story is read in from file, newInstanceFromMemento returns the
+ * existing Function with the saved function's number (the one from the
+ * functions list, if there is one) instead of creating a new one. So restored
+ * stories share Function objects with the card store, and two Functions are
+ * the same function if and only if they are the same object.
  * 
- * The Function class constructor is package-private so that FunctionConverter
- * can use it, but it should not be used otherwise.
+ * The Function class constructor is private so that nothing can create a
+ * second Function object with the same number.
  * 
  * @author seanh
  */
@@ -72,17 +78,23 @@ final class Function implements Comparable, Originator {
 
     private final String imageFilename;
     private final String imagePath;
-    private final Image image;
     private final String highDetailImagePath;
-    private Image highDetailImage;
     
     /**
      * A singleton list containing a Function object for every function
      * represented in the functions.xml file.
      */
     private static List<Function> functions = null;
+
+    /**
+     * Every Function object, keyed by number: the functions in the functions
+     * list plus any functions with other numbers that have been read in from
+     * saved stories.
+     */
+    private static final ConcurrentMap<Integer,Function> registry =
+            new ConcurrentHashMap<Integer,Function>();
     
-    private static void initialiseFunctionsIfNecessary() {
+    private static synchronized void initialiseFunctionsIfNecessary() {
         if (functions == null) {
             try {
                 String jsonString = Util.readTextFileFromClassPath("/data/functions/functions.json");
@@ -92,7 +104,7 @@ final class Function implements Comparable, Originator {
                 JsonElement element = parser.parse(jsonString);
                 JsonArray jsonArray = element.getAsJsonArray();
 
-                functions = new ArrayList<Function>();
+                List<Function> list = new ArrayList<Function>();
                 for (int i = 0; i < jsonArray.size(); i++) {
                     if ( ! jsonArray.get(i).isJsonNull() ) {
                         try {
@@ -102,12 +114,14 @@ final class Function implements Comparable, Originator {
                             String description = jsonObject.get("description").toString();
                             String instructions = jsonObject.get("instructions").toString();
                             Function function = new Function(number,name,description,instructions);
-                            functions.add(function);
+                            list.add(function);
+                            registry.put(number, function);
                         } catch (IllegalStateException e) {
                             throw new RuntimeException("Exception when reading function #"+i+" in functions file.",e);
                         }
                     }
                 }
+                functions = Collections.unmodifiableList(list);
             } catch (IOException e) {
                 // If we can't read the functions file then the application
                 // can't work.
@@ -122,38 +136,56 @@ final class Function implements Comparable, Originator {
         initialiseFunctionsIfNecessary();
         return functions;
     }
+
+    /**
+     * Return the Function with the given number, or null if there is no such
+     * function.
+     */
+    static Function getFunction(int number) {
+        initialiseFunctionsIfNecessary();
+        return registry.get(number);
+    }
+
+    /**
+     * Return the Function with the given number, creating it with the given
+     * fields if there isn't one yet. If there is one its fields are used and
+     * the given ones are ignored.
+     */
+    private static Function intern(int number, String name, String description,
+            String instructions) {
+        initialiseFunctionsIfNecessary();
+        Function f = registry.get(number);
+        if (f == null) {
+            Function newFunction = new Function(number, name, description,
+                    instructions);
+            f = registry.putIfAbsent(number, newFunction);
+            if (f == null) {
+                f = newFunction;
+            }
+        }
+        return f;
+    }
     
-    Function(int number, String name, String description, String instructions) {
+    private Function(int number, String name, String description, String instructions) {
         this.number = number;
         this.name = name;
         this.description = description;
         this.instructions = instructions;
-        this.imageFilename  = number+".png";
-        this.imagePath = "/data/functions/"+imageFilename;
-        this.highDetailImagePath = "/data/functions/"+number+"-detail.png";
-        try {
-            this.image = Util.readImageFromClassPath(imagePath);
-        } catch (IOException e) {
-            System.out.println("Couldn't load image for function "+imagePath);
-            // FIXME: shouldn't need to crash here.
-            throw new RuntimeException("Couldn't load image for function "+imagePath,e);
-        }
-        try {
-            this.highDetailImage = Util.readImageFromClassPath(highDetailImagePath);
-        } catch (IOException e) {
-            System.out.println("Couldn't load image for function "+imagePath);
-            this.highDetailImage = this.image;
-        }
+        this.imageFilename = FunctionImages.imageFilename(number);
+        this.imagePath = FunctionImages.imagePath(number);
+        this.highDetailImagePath = FunctionImages.highDetailImagePath(number);
     }
         
     public int getNumber() { return number; }
     public String getName() { return name; }
     public String getDescription() { return description; }
     public String getInstructions() { return instructions; }
-    public Image getImage() { return image; }
+    // Images are shared by all functions with the same number and are read in
+    // the first time they're needed, see FunctionImages.
+    public Image getImage() { return FunctionImages.getImage(number); }
     public String getImageFilename() { return imageFilename; }
     public String getImagePath() { return imagePath; }
-    public Image getHighDetailImage() { return highDetailImage; }
+    public Image getHighDetailImage() { return FunctionImages.getHighDetailImage(number); }
     public String getHighDetailImagePath() { return highDetailImagePath; }
     
     @Override
@@ -167,14 +199,8 @@ final class Function implements Comparable, Originator {
      * (This is in place of overriding equals, which is a PITA.)
      */
     public boolean compare(Object obj) {
-        if (!(obj instanceof Function)) {
-            return false;
-        } else {
-            Function f = (Function) obj;
-            // A function's symbol is supposed to uniquely identify that
-            // function, so we just check if the symbol's are the same.
-            return f.number == this.number;
-        }        
+        // There's only one Function object for each function number.
+        return obj == this;
     }
     
     /**
@@ -230,7 +256,7 @@ final class Function implements Comparable, Originator {
             throw e;
         }
         FunctionMemento f = (FunctionMemento) m;
-        return new Function(f.getNumber(),f.getName(),f.getDescription(),
+        return intern(f.getNumber(),f.getName(),f.getDescription(),
                 f.getInstructions());
     }
 }
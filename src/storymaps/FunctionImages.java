@@ -0,0 +1,148 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.awt.Image;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * A shared registry of the images of Propp's functions, keyed by function
+ * number.
+ *
+ * Images are only read in and decoded when they are first asked for, and are
+ * then cached so that every Function object and story card with the same
+ * function number shares one copy. The cache holds the images by soft
+ * reference, so images that nothing else is using can be thrown away when
+ * memory runs low (and will be read in again if they're needed again).
+ *
+ * This class is thread-safe. If two threads ask for the same image at the
+ * same time it may be decoded twice, but both get a usable image.
+ *
+ * @author seanh
+ */
+final class FunctionImages {
+
+    private static final String DIR = "/data/functions/";
+
+    private static final ConcurrentMap<Integer,SoftReference<Image>> images =
+            new ConcurrentHashMap<Integer,SoftReference<Image>>();
+
+    private static final ConcurrentMap<Integer,SoftReference<Image>> highDetailImages =
+            new ConcurrentHashMap<Integer,SoftReference<Image>>();
+
+    private static final ConcurrentMap<Integer,SoftReference<ImagePyramid>> pyramids =
+            new ConcurrentHashMap<Integer,SoftReference<ImagePyramid>>();
+
+    private static final ConcurrentMap<Integer,SoftReference<ImagePyramid>> highDetailPyramids =
+            new ConcurrentHashMap<Integer,SoftReference<ImagePyramid>>();
+
+    private FunctionImages() {
+    }
+
+    static String imageFilename(int number) {
+        return number + ".png";
+    }
+
+    static String imagePath(int number) {
+        return DIR + imageFilename(number);
+    }
+
+    static String highDetailImagePath(int number) {
+        return DIR + number + "-detail.png";
+    }
+
+    /**
+     * Return the (normal detail) image for the given function.
+     *
+     * @throws RuntimeException if the image can't be read.
+     */
+    static Image getImage(int number) {
+        Image image = get(images, number);
+        if (image == null) {
+            String path = imagePath(number);
+            try {
+                image = Util.readImageFromClassPath(path);
+            } catch (IOException e) {
+                // FIXME: shouldn't need to crash here.
+                throw new RuntimeException("Couldn't load image for function "+path,e);
+            }
+            images.put(number, new SoftReference<Image>(image));
+        }
+        return image;
+    }
+
+    /**
+     * Return the high detail image for the given function, or the normal
+     * image if the function has no high detail image.
+     */
+    static Image getHighDetailImage(int number) {
+        Image image = get(highDetailImages, number);
+        if (image == null) {
+            String path = highDetailImagePath(number);
+            try {
+                image = Util.readImageFromClassPath(path);
+            } catch (IOException e) {
+                Logger.getLogger(FunctionImages.class.getName()).warning(
+                        "Couldn't load high detail image for function "+path);
+                image = getImage(number);
+            }
+            highDetailImages.put(number, new SoftReference<Image>(image));
+        }
+        return image;
+    }
+
+    /**
+     * Return an ImagePyramid of the (normal detail) image for the given
+     * function.
+     *
+     * @throws RuntimeException if the image can't be read.
+     */
+    static ImagePyramid getImagePyramid(int number) {
+        ImagePyramid pyramid = get(pyramids, number);
+        if (pyramid == null) {
+            pyramid = new ImagePyramid(getImage(number));
+            pyramids.put(number, new SoftReference<ImagePyramid>(pyramid));
+        }
+        return pyramid;
+    }
+
+    /**
+     * Return an ImagePyramid of the high detail image for the given function.
+     */
+    static ImagePyramid getHighDetailImagePyramid(int number) {
+        ImagePyramid pyramid = get(highDetailPyramids, number);
+        if (pyramid == null) {
+            pyramid = new ImagePyramid(getHighDetailImage(number));
+            highDetailPyramids.put(number, new SoftReference<ImagePyramid>(pyramid));
+        }
+        return pyramid;
+    }
+
+    private static <T> T get(ConcurrentMap<Integer,SoftReference<T>> cache,
+            int number) {
+        SoftReference<T> ref = cache.get(number);
+        return ref == null ? null : ref.get();
+    }
+}
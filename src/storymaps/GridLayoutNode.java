@@ -27,7 +27,7 @@ import edu.umd.cs.piccolo.PNode;
  * 
  * @author seanh
  */
-public class GridLayoutNode extends PNode {
+public class GridLayoutNode extends LayoutNode {
 
     /**
      * The number of columns in the grid layout
@@ -39,8 +39,6 @@ public class GridLayoutNode extends PNode {
      */
     private int margin;
     
-    private int prev_num_children = 0;
-    
     public GridLayoutNode(int columns, int margin) {
         this.columns = columns;
         this.margin = margin;        
@@ -54,22 +52,13 @@ public class GridLayoutNode extends PNode {
         return margin;
     }
         
-    @Override
     /**
      * Reposition every child node of this node, arranging them into a grid
      * formation of width this.columns, with gaps of size this.margin between
      * the nodes.
      */
-    public void layoutChildren() {
-        // We only recompute the layout if a child node has been added or
-        // removed (and not if one has just moved or changed size).
-        if (getChildrenCount() == prev_num_children) {
-            return;
-        }
-        else {
-            prev_num_children = getChildrenCount();
-        }
-        
+    @Override
+    protected void layout(int from, int to, int shift) {
         double xoffset = 0;
         double yoffset = 0;
         for (int i = 0; i < getChildrenCount(); i++) {
@@ -100,7 +89,7 @@ public class GridLayoutNode extends PNode {
             PNode child = getChild(i);
             double top = child.getY();
             double left = child.getX();
-            child.setOffset(xoffset-left,yoffset-top);
+            setChildOffset(child, xoffset-left, yoffset-top);
         }                            
     }    
 }
\ No newline at end of file
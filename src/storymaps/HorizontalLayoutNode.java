@@ -21,22 +21,19 @@
 package storymaps;
 
 import edu.umd.cs.piccolo.PNode;
-import java.util.Iterator;
 
 /**
  * A layout node that lays its children out in a horizontal line.
  * 
  * @author seanh
  */
-public class HorizontalLayoutNode extends PNode {
+public class HorizontalLayoutNode extends LayoutNode {
     
     /**
      * The size of the gap between each node.         
      */
     private int margin;
     
-    private int prev_num_children = 0;
-    
     public HorizontalLayoutNode(int margin) {
         this.margin = margin;        
     }
@@ -46,29 +43,18 @@ public class HorizontalLayoutNode extends PNode {
         return margin;
     }
     
-    @Override
     /**
      * Reposition every child node of this node, arranging them into a
      * horizontal line with gaps of size this.margin between the nodes.
      */
-    public void layoutChildren() {
-        // We only recompute the layout if a child node has been added or
-        // removed (and not if one has just moved or changed size).
-        if (getChildrenCount() == prev_num_children) {
-            return;
-        }
-        else {
-            prev_num_children = getChildrenCount();
-        }
-        
+    @Override
+    protected void layout(int from, int to, int shift) {
         double xOffset = 0;
         double yOffset = 0;
-                        
-        Iterator i = getChildrenIterator();
-        while (i.hasNext()) {
-            PNode child = (PNode) i.next();
-            child.setOffset(xOffset - child.getX(), yOffset);
-            xOffset += child.getFullBoundsReference().getWidth() + margin;
+        for (int i = 0; i < getChildrenCount(); i++) {
+            PNode child = getChild(i);
+            setChildOffset(child, xOffset - child.getX(), yOffset);
+            xOffset += getChildWidth(i) + margin;
         }                            
     }    
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A mipmap-style pyramid of pre-scaled copies of an image: the full size
+ * image, then a copy at half the width and height, then a quarter, and so on
+ * down to MIN_SIZE pixels.
+ *
+ * When an image is painted much smaller than its real size every pixel of it
+ * has to be resampled on every paint, which is slow when lots of images are
+ * being painted in every frame of a zoom animation. Painting the smallest
+ * level that is still at least as big as the size it's painted at is much
+ * cheaper and looks at least as good.
+ *
+ * The levels are created in a format compatible with the screen (when there
+ * is one), so Java2D can cache them in video memory.
+ *
+ * @author seanh
+ */
+final class ImagePyramid {
+
+    /**
+     * Stop halving when the width or height would go below this.
+     */
+    private static final int MIN_SIZE = 8;
+
+    /**
+     * The levels, biggest (the full size image) first.
+     */
+    private final Image[] levels;
+
+    ImagePyramid(Image image) {
+        List<Image> list = new ArrayList<Image>();
+        Image level = toCompatibleImage(image, image.getWidth(null),
+                image.getHeight(null));
+        list.add(level);
+        int w = level.getWidth(null);
+        int h = level.getHeight(null);
+        while (w / 2 >= MIN_SIZE && h / 2 >= MIN_SIZE) {
+            w /= 2;
+            h /= 2;
+            level = toCompatibleImage(level, w, h);
+            list.add(level);
+        }
+        levels = list.toArray(new Image[list.size()]);
+    }
+
+    /**
+     * Return the full size image.
+     */
+    Image getImage() {
+        return levels[0];
+    }
+
+    int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Return the smallest level that is at least the given size in pixels,
+     * or the full size image if the size is bigger than that.
+     */
+    Image getLevel(double width, double height) {
+        for (int i = levels.length - 1; i > 0; i--) {
+            Image level = levels[i];
+            if (level.getWidth(null) >= width && level.getHeight(null) >= height) {
+                return level;
+            }
+        }
+        return levels[0];
+    }
+
+    /**
+     * Return a copy of image scaled to the given size, in a format that is
+     * compatible with the screen.
+     */
+    private static BufferedImage toCompatibleImage(Image image, int w, int h) {
+        BufferedImage copy;
+        if (GraphicsEnvironment.isHeadless()) {
+            copy = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        } else {
+            GraphicsConfiguration gc = GraphicsEnvironment
+                    .getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDefaultConfiguration();
+            copy = gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        }
+        Graphics2D g = copy.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING,
+                    RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,284 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.util.PBounds;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Base class for the layout nodes, which position their children in some
+ * arrangement whenever the children change.
+ *
+ * Piccolo calls layoutChildren whenever the bounds of any child are
+ * invalidated, including when the layout itself moves a child, so LayoutNode
+ * remembers the children and the sizes of their full bounds from the last
+ * layout and only calls layout (which subclasses implement) when a child has
+ * been added, removed, reordered, replaced or resized, or this node's own
+ * bounds have changed. layout is told which children have changed so that it
+ * can leave the rest alone if it can.
+ *
+ * Between beginUpdate and endUpdate the children are not laid out at all,
+ * they are laid out once by endUpdate, so that many children can be added
+ * with one layout.
+ *
+ * The time spent laying out is counted (see getLayoutCount and
+ * getLayoutTimeNanos), and a layout that takes longer than the slow layout
+ * threshold (50ms by default, or the storymaps.layout.slowLayoutMillis system
+ * property) is logged as a warning, because it freezes the story map.
+ *
+ * @author seanh
+ */
+public abstract class LayoutNode extends PNode {
+
+    /**
+     * The children at the last layout, in order, and the widths and heights
+     * of their full bounds. Only the first laidOutCount entries are used.
+     */
+    private PNode[] laidOut = new PNode[16];
+    private double[] widths = new double[16];
+    private double[] heights = new double[16];
+    private int laidOutCount = 0;
+
+    /**
+     * This node's bounds at the last layout, or null if there hasn't been
+     * one.
+     */
+    private PBounds laidOutBounds = null;
+
+    /**
+     * How many calls to beginUpdate have not been matched by a call to
+     * endUpdate yet.
+     */
+    private int updateDepth = 0;
+
+    private static final long SLOW_LAYOUT_NANOS = 1000000L
+            * Long.getLong("storymaps.layout.slowLayoutMillis", 50);
+
+    private long layoutCount = 0;
+    private long layoutTimeNanos = 0;
+    private long maxLayoutTimeNanos = 0;
+    private long repositionedCount = 0;
+
+    /**
+     * Lay out the children, if anything that affects their layout has changed
+     * since the last time and no update is in progress (see beginUpdate).
+     * Piccolo calls this whenever the node's full bounds are validated, but
+     * it can also be called to get the children in position straight away.
+     */
+    @Override
+    public final void layoutChildren() {
+        if (updateDepth > 0) {
+            return;
+        }
+        int n = getChildrenCount();
+        int from = 0;
+        int to = n;
+        PBounds bounds = getBoundsReference();
+        if (bounds.equals(laidOutBounds)) {
+            // The children at the start that are the same as last time.
+            int common = Math.min(n, laidOutCount);
+            while (from < common && unchanged(from, from)) {
+                from++;
+            }
+            if (from == n && n == laidOutCount) {
+                return;
+            }
+            // The children at the end that are the same as last time.
+            while (to > from && to - n + laidOutCount > from
+                    && unchanged(to - 1, to - 1 - n + laidOutCount)) {
+                to--;
+            }
+        } else {
+            laidOutBounds = (PBounds) bounds.clone();
+        }
+        long start = System.nanoTime();
+
+        // Update the remembered children: keep the unchanged ones at the end
+        // (which move along if children were inserted or removed), then fill
+        // in the changed ones.
+        int shift = n - laidOutCount;
+        int oldCount = laidOutCount;
+        if (n > laidOut.length) {
+            int length = Math.max(n, 2 * laidOut.length);
+            laidOut = Arrays.copyOf(laidOut, length);
+            widths = Arrays.copyOf(widths, length);
+            heights = Arrays.copyOf(heights, length);
+        }
+        int suffix = n - to;
+        System.arraycopy(laidOut, oldCount - suffix, laidOut, n - suffix, suffix);
+        System.arraycopy(widths, oldCount - suffix, widths, n - suffix, suffix);
+        System.arraycopy(heights, oldCount - suffix, heights, n - suffix, suffix);
+        for (int i = from; i < n - suffix; i++) {
+            PNode child = getChild(i);
+            PBounds b = child.getFullBoundsReference();
+            laidOut[i] = child;
+            widths[i] = b.getWidth();
+            heights[i] = b.getHeight();
+        }
+        for (int i = n; i < oldCount; i++) {
+            laidOut[i] = null;
+        }
+        laidOutCount = n;
+
+        layout(from, to, shift);
+
+        long time = System.nanoTime() - start;
+        layoutCount++;
+        layoutTimeNanos += time;
+        if (time > maxLayoutTimeNanos) {
+            maxLayoutTimeNanos = time;
+        }
+        if (time > SLOW_LAYOUT_NANOS) {
+            Logger.getLogger(LayoutNode.class.getName()).warning("Slow layout: "
+                    + this + " took " + time / 1000000 + "ms to lay out "
+                    + (to - from) + " of " + n + " children");
+        }
+    }
+
+    /**
+     * Return true if the child at index i is the same node, with full bounds
+     * of the same size, as the child at index j at the last layout.
+     */
+    private boolean unchanged(int i, int j) {
+        PNode child = getChild(i);
+        if (child != laidOut[j]) {
+            return false;
+        }
+        PBounds b = child.getFullBoundsReference();
+        return b.getWidth() == widths[j] && b.getHeight() == heights[j];
+    }
+
+    /**
+     * Position the children.
+     *
+     * The children before index `from` and from index `to` on are the same
+     * nodes, with full bounds of the same size, as at the last layout, and
+     * the ones from `to` on were at index (i - shift) then. If this node's
+     * bounds have changed, or it's the first layout, from is 0 and to is the
+     * number of children. Implementations that don't keep anything from the
+     * last layout can ignore the arguments and lay out every child.
+     */
+    protected abstract void layout(int from, int to, int shift);
+
+    /**
+     * Return the width of the full bounds of the child at index i, as it was
+     * when the current layout started.
+     */
+    protected double getChildWidth(int i) {
+        return widths[i];
+    }
+
+    /**
+     * Return the height of the full bounds of the child at index i, as it was
+     * when the current layout started.
+     */
+    protected double getChildHeight(int i) {
+        return heights[i];
+    }
+
+    /**
+     * Set the offset of a child node, if it isn't already at that offset
+     * (setting the offset invalidates the bounds of the child and all its
+     * ancestors, even if it hasn't changed).
+     */
+    protected void setChildOffset(PNode child, double x, double y) {
+        if (child.getXOffset() != x || child.getYOffset() != y) {
+            child.setOffset(x, y);
+            repositionedCount++;
+        }
+    }
+
+    /**
+     * Translate a child node by the given amount, if the amount isn't zero.
+     */
+    protected void translateChild(PNode child, double dx, double dy) {
+        if (dx != 0 || dy != 0) {
+            child.translate(dx, dy);
+            repositionedCount++;
+        }
+    }
+
+    /**
+     * Stop laying out the children until the matching call to endUpdate.
+     * Calls can be nested.
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * End an update started by beginUpdate and, if this was the outermost
+     * one, lay out the children.
+     *
+     * @throws IllegalStateException If there was no update to end.
+     */
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("endUpdate without beginUpdate");
+        }
+        updateDepth--;
+        if (updateDepth == 0) {
+            layoutChildren();
+        }
+    }
+
+    /**
+     * Return the number of times the children have been laid out (not
+     * counting calls to layoutChildren when nothing had changed).
+     */
+    public long getLayoutCount() {
+        return layoutCount;
+    }
+
+    /**
+     * Return the total time spent laying out the children, in nanoseconds.
+     */
+    public long getLayoutTimeNanos() {
+        return layoutTimeNanos;
+    }
+
+    /**
+     * Return the longest time that one layout of the children has taken, in
+     * nanoseconds.
+     */
+    public long getMaxLayoutTimeNanos() {
+        return maxLayoutTimeNanos;
+    }
+
+    /**
+     * Return the number of times a child has been moved by a layout.
+     */
+    public long getRepositionedCount() {
+        return repositionedCount;
+    }
+
+    /**
+     * Set the layout counts and times back to zero.
+     */
+    public void resetLayoutStatistics() {
+        layoutCount = 0;
+        layoutTimeNanos = 0;
+        maxLayoutTimeNanos = 0;
+        repositionedCount = 0;
+    }
+}
@@ -0,0 +1,165 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A type of message that can be sent with Messager.
+ *
+ * There is only ever one Message object for each message name (see get), so
+ * messages can be compared with == instead of comparing their names. The
+ * messages that the application sends are the constants of this class.
+ *
+ * Each Message also holds the subscriptions to it, so that Messager.send can
+ * go straight to a message's receivers without looking anything up (except,
+ * for subscriptions to a particular sender, one lookup of the sender). The
+ * subscription arrays are only ever replaced, never modified, and only by
+ * Messager holding the Message's lock. They are volatile so that send can
+ * read them without taking the lock.
+ *
+ * @author seanh
+ */
+public final class Message {
+
+    private static final Map<String,Message> messages =
+            new HashMap<String,Message>();
+
+    // Must be initialised before the constants below are created.
+    static final Messager.Subscription[] NO_SUBSCRIPTIONS =
+            new Messager.Subscription[0];
+
+    // Messages sent by StoryEditor.
+    public static final Message SORT = get("sort");
+    public static final Message EDITOR_COLLAPSED = get("Editor collapsed");
+    public static final Message EDITOR_UNCOLLAPSED = get("Editor uncollapsed");
+
+    // Messages sent by story cards.
+    public static final Message STORY_CARD_CLICKED = get("StoryCard clicked");
+    public static final Message STORY_CARD_SINGLE_CLICKED = get("StoryCard single-clicked");
+    public static final Message STORY_CARD_DOUBLE_CLICKED = get("StoryCard double-clicked");
+
+    // Sent by Draggable, the sender arg is the dragged node.
+    public static final Message DRAG_STARTED = get("drag started");
+
+    // Sent by ui.Button, the sender arg is the button's name.
+    public static final Message BUTTON_CLICKED = get("button clicked");
+
+    private final String name;
+
+    /**
+     * The subscriptions made with Messager.accept, in the order they were
+     * made.
+     */
+    volatile Messager.Subscription[] subscriptions = NO_SUBSCRIPTIONS;
+
+    /**
+     * The subscriptions made with Messager.acceptOnce, in the order they were
+     * made.
+     */
+    volatile Messager.Subscription[] oneTimeSubscriptions = NO_SUBSCRIPTIONS;
+
+    /**
+     * The subscriptions made with Messager.acceptFrom, keyed by the sender
+     * that they are for (weakly, see Messager.SenderKey). Created when the
+     * first one is made.
+     */
+    Map<Messager.SenderKey,Messager.Subscription[]> senderSubscriptions = null;
+
+    /**
+     * The key Messager.send looks senderSubscriptions up with, re-aimed at
+     * each sender in turn. Only used with this Message locked.
+     */
+    final Messager.SenderKey senderProbe = new Messager.SenderKey();
+
+    /**
+     * Counts of how often this message is sent, to how many receivers, and
+     * how long they take.
+     */
+    final MessageStatistics statistics;
+
+    /**
+     * Whether the statistics of new messages should be registered with the
+     * MBean server as they are created.
+     */
+    private static boolean registerStatistics = false;
+
+    private Message(String name) {
+        this.name = name;
+        this.statistics = new MessageStatistics(name);
+    }
+
+    /**
+     * Return the Message with the given name, creating it if there isn't one
+     * yet.
+     */
+    public static Message get(String name) {
+        synchronized (messages) {
+            Message m = messages.get(name);
+            if (m == null) {
+                m = new Message(name);
+                messages.put(name, m);
+                if (registerStatistics) {
+                    m.statistics.register();
+                }
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Register the statistics of every message, and of every message created
+     * from now on, with the platform MBean server so that they can be seen
+     * with JMX (see MessageStatisticsMXBean). Does nothing if called again.
+     */
+    static void registerStatistics() {
+        synchronized (messages) {
+            if (registerStatistics) {
+                return;
+            }
+            registerStatistics = true;
+            for (Message m : messages.values()) {
+                m.statistics.register();
+            }
+        }
+    }
+
+    /**
+     * Return every Message that has been created.
+     */
+    static List<Message> getAll() {
+        synchronized (messages) {
+            return new ArrayList<Message>(messages.values());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,224 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+
+/**
+ * Counts how often a Message is sent, how many receivers it goes to and how
+ * long they take to receive it. Each Message has one, which Messager updates
+ * and which is registered with the platform MBean server (see
+ * MessageStatisticsMXBean).
+ *
+ * A receiver that takes longer than the slow receiver threshold (50ms by
+ * default, or the storymaps.messager.slowReceiverMillis system property) is
+ * logged as a warning, because on the event dispatch thread that long is
+ * enough to freeze the story map.
+ *
+ * All of the counters are atomic and lock-free, so any thread can update
+ * them.
+ *
+ * @author seanh
+ */
+final class MessageStatistics implements MessageStatisticsMXBean {
+
+    /**
+     * Whether Messager measures anything at all. Can be turned off with
+     * -Dstorymaps.messager.statistics=false.
+     */
+    static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty("storymaps.messager.statistics", "true"));
+
+    static final long SLOW_RECEIVER_NANOS = 1000000L
+            * Long.getLong("storymaps.messager.slowReceiverMillis", 50);
+
+    private static final long[] HISTOGRAM_LIMITS_MICROS =
+            {10, 100, 1000, 10000, 100000};
+
+    /**
+     * Whether the current thread is the event dispatch thread. Asking
+     * SwingUtilities takes a lock and costs more than most receivers, and a
+     * thread's answer never changes, so each thread only asks once.
+     */
+    private static final ThreadLocal<Boolean> onEventDispatchThread =
+            new ThreadLocal<Boolean>() {
+
+        @Override
+        protected Boolean initialValue() {
+            return SwingUtilities.isEventDispatchThread();
+        }
+    };
+
+    private final String name;
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong maxFanOut = new AtomicLong();
+    private final AtomicLong receiverNanos = new AtomicLong();
+    private final AtomicLong eventDispatchThreadNanos = new AtomicLong();
+    private final AtomicLong maxReceiverNanos = new AtomicLong();
+    private final AtomicLong slowReceivers = new AtomicLong();
+    private final AtomicLongArray histogram =
+            new AtomicLongArray(HISTOGRAM_LIMITS_MICROS.length + 1);
+
+    MessageStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Register with the platform MBean server. Failing to register (e.g. when
+     * running in a sandbox that doesn't allow it) is logged and otherwise
+     * ignored, the statistics are still kept.
+     */
+    void register() {
+        try {
+            ObjectName objectName = new ObjectName("storymaps:type=Message,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    objectName);
+        } catch (JMException e) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    "Could not register statistics for message " + name, e);
+        } catch (SecurityException e) {
+            Logger.getLogger(getClass().getName()).log(Level.FINE,
+                    "Not allowed to register statistics for message " + name, e);
+        }
+    }
+
+    /**
+     * Record one sending of the message, to the given number of receivers.
+     */
+    void sent(int fanOut) {
+        sends.incrementAndGet();
+        deliveries.addAndGet(fanOut);
+        updateMax(maxFanOut, fanOut);
+    }
+
+    /**
+     * Record that the given receiver took the given number of nanoseconds to
+     * receive the message, on the current thread.
+     */
+    void received(Receiver r, long nanos) {
+        receiverNanos.addAndGet(nanos);
+        if (onEventDispatchThread.get()) {
+            eventDispatchThreadNanos.addAndGet(nanos);
+        }
+        updateMax(maxReceiverNanos, nanos);
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < HISTOGRAM_LIMITS_MICROS.length
+                && micros > HISTOGRAM_LIMITS_MICROS[bucket]) {
+            bucket++;
+        }
+        histogram.incrementAndGet(bucket);
+        if (nanos > SLOW_RECEIVER_NANOS) {
+            slowReceivers.incrementAndGet();
+            Logger.getLogger(Messager.class.getName()).warning("Slow receiver: "
+                    + r + " took " + nanos / 1000000 + "ms to receive message "
+                    + name + " on thread " + Thread.currentThread().getName());
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    // Implement MessageStatisticsMXBean
+    // ---------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSendCount() {
+        return sends.get();
+    }
+
+    public long getDeliveryCount() {
+        return deliveries.get();
+    }
+
+    public double getMeanFanOut() {
+        long n = sends.get();
+        return n == 0 ? 0 : (double) deliveries.get() / n;
+    }
+
+    public int getMaxFanOut() {
+        return (int) maxFanOut.get();
+    }
+
+    public double getTotalReceiverTimeMillis() {
+        return receiverNanos.get() / 1e6;
+    }
+
+    public double getEventDispatchThreadTimeMillis() {
+        return eventDispatchThreadNanos.get() / 1e6;
+    }
+
+    public long getMaxReceiverTimeMicros() {
+        return maxReceiverNanos.get() / 1000;
+    }
+
+    public long[] getReceiverTimeHistogramLimitsMicros() {
+        return HISTOGRAM_LIMITS_MICROS.clone();
+    }
+
+    public long[] getReceiverTimeHistogram() {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    public long getSlowReceiverCount() {
+        return slowReceivers.get();
+    }
+
+    public void reset() {
+        sends.set(0);
+        deliveries.set(0);
+        maxFanOut.set(0);
+        receiverNanos.set(0);
+        eventDispatchThreadNanos.set(0);
+        maxReceiverNanos.set(0);
+        slowReceivers.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": sent " + getSendCount() + " times to "
+                + getDeliveryCount() + " receivers in "
+                + getTotalReceiverTimeMillis() + "ms";
+    }
+}
@@ -0,0 +1,104 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * The management interface of a MessageStatistics, through which the
+ * statistics for each message sent with Messager can be seen in JConsole or
+ * any other JMX client. Each message is registered as
+ * storymaps:type=Message,name="message name".
+ *
+ * Receiver times are wall-clock times spent in Receiver.receive, measured on
+ * whatever thread the receiver was called on.
+ *
+ * @author seanh
+ */
+public interface MessageStatisticsMXBean {
+
+    /**
+     * The name of the message.
+     */
+    String getName();
+
+    /**
+     * The number of times that the message has been sent.
+     */
+    long getSendCount();
+
+    /**
+     * The number of times that a receiver has been called with the message.
+     */
+    long getDeliveryCount();
+
+    /**
+     * The mean number of receivers that each sending of the message went to.
+     */
+    double getMeanFanOut();
+
+    /**
+     * The largest number of receivers that one sending of the message went
+     * to.
+     */
+    int getMaxFanOut();
+
+    /**
+     * The total time spent in receivers of the message, in milliseconds.
+     */
+    double getTotalReceiverTimeMillis();
+
+    /**
+     * The part of the total time spent in receivers that was spent on the
+     * event dispatch thread (when the user interface can't respond), in
+     * milliseconds.
+     */
+    double getEventDispatchThreadTimeMillis();
+
+    /**
+     * The longest time that one receiver took to receive the message, in
+     * microseconds.
+     */
+    long getMaxReceiverTimeMicros();
+
+    /**
+     * The upper limits of the receiver time histogram's buckets, in
+     * microseconds. The last bucket has no upper limit.
+     */
+    long[] getReceiverTimeHistogramLimitsMicros();
+
+    /**
+     * The number of receiver calls that took up to each of the limits in
+     * getReceiverTimeHistogramLimitsMicros (and more than the limit before).
+     * Has one more bucket than there are limits, for the calls that took
+     * longer than the last limit.
+     */
+    long[] getReceiverTimeHistogram();
+
+    /**
+     * The number of receiver calls that took longer than the slow receiver
+     * threshold, and were logged.
+     */
+    long getSlowReceiverCount();
+
+    /**
+     * Set all of the counts back to zero.
+     */
+    void reset();
+}
@@ -20,42 +20,190 @@
 */
 package storymaps;
 
-import java.util.ArrayList;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
 
 /**
- * Passive helper class for Messager. A Subscription object just wraps a
- * Receiver object and an receiver's argument Object in one class.
+ * An incredibly useful (if not very java-like) singleton message-passing class.
+ * 
+ * Messages are identified by Message objects. Each Message holds its own
+ * arrays of subscriptions, so sending a message doesn't look anything up or
+ * allocate anything, it just calls each subscribed receiver in turn. The
+ * arrays are copied and replaced when subscriptions change, so receivers can
+ * subscribe and unsubscribe while a message is being sent (the change takes
+ * effect from the next message).
+ *
+ * A receiver can also subscribe to a message from one sender only (see
+ * acceptFrom), in which case it is only called when the message is sent with
+ * that sender as its argument. Sending a message to a particular sender's
+ * subscribers is one hash lookup, however many other receivers there are.
+ *
+ * The messager is thread-safe: messages can be sent and subscriptions made
+ * and removed from any thread. Changes to a message's subscriptions are
+ * made holding the Message's lock, and sending a message only holds the
+ * lock to take its sender and one-time subscriptions, never while calling
+ * receivers.
+ *
+ * The messager only holds weak references to receivers and to the senders
+ * of acceptFrom subscriptions, so subscribing doesn't keep anything alive: a
+ * story card or story map that is thrown away is garbage collected even if
+ * it never unsubscribed, and its subscriptions are purged the next time the
+ * messager is used. The flip side is that a receiver must be referenced from
+ * somewhere else for as long as it should receive messages (an anonymous
+ * Receiver that is only passed to accept will stop receiving them).
+ *
+ * Each subscription has a Delivery that says which thread its receiver is
+ * called on. By default receivers are called synchronously, on the thread
+ * that sent the message.
+ *
+ * Each Message keeps statistics of how often it is sent, to how many
+ * receivers and how long they take (see MessageStatistics), which can be
+ * watched over JMX. Receivers that take too long are logged.
+ *
+ * The methods that take a message name instead of a Message are for
+ * compatibility, they just look up the Message with that name.
  * 
  * @author seanh
  */
-class Subscription {
-    private Receiver r;
-    private Object arg;
-    public Subscription(Receiver r, Object arg) {
-        this.r =r;
-        this.arg = arg;
-    }
-    public Receiver getReceiver() {
-        return r;
+final public class Messager { // Class is final so it can't be subclassed.
+
+    /**
+     * A weak reference that knows which Message it belongs to, so that
+     * Messager can find the subscriptions to purge when the referent is
+     * garbage collected.
+     */
+    static class MessageReference<T> extends WeakReference<T> {
+        private final Message message;
+        MessageReference(T referent, Message message,
+                ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.message = message;
+        }
+        Message getMessage() {
+            return message;
+        }
     }
-    public Object getArg() {
-        return arg;
+
+    /**
+     * A weak reference to the sender of a subscription made with acceptFrom,
+     * used as a hash key. Two SenderKeys are equal if they refer to the same
+     * object (not just equal objects).
+     *
+     * A probe key (made with the no-argument constructor) holds nothing
+     * weakly, it is aimed at a sender strongly just for the duration of one
+     * lookup, so that send doesn't have to allocate a key each time.
+     */
+    static final class SenderKey extends MessageReference<Object> {
+        private int hash;
+        private Object probe = null;
+        SenderKey(Object sender, Message message,
+                ReferenceQueue<Object> queue) {
+            super(sender, message, queue);
+            this.hash = System.identityHashCode(sender);
+        }
+        SenderKey() {
+            super(null, null, null);
+        }
+        /**
+         * Aim this probe key at sender (or at nothing if sender is null).
+         * Only called on a Message's probe key, with the Message locked.
+         */
+        void aim(Object sender) {
+            probe = sender;
+            hash = System.identityHashCode(sender);
+        }
+        private Object sender() {
+            return probe != null ? probe : get();
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof SenderKey)) {
+                return false;
+            }
+            Object sender = sender();
+            return sender != null && sender == ((SenderKey) obj).sender();
+        }
     }
-    @Override
-    public String toString() {
-        String s = "Receiver: " + r + "\n";
-        s = s + "  receiver's arg: " + arg;
-        return s;
+
+    /**
+     * Passive helper class for Messager. A Subscription object just wraps a
+     * (weakly referenced) Receiver object, an receiver's argument Object and
+     * the way the message is to be delivered in one class.
+     */
+    static class Subscription {
+        private final MessageReference<Receiver> r;
+        private final Object arg;
+        private final Delivery delivery;
+        public Subscription(MessageReference<Receiver> r, Object arg,
+                Delivery delivery) {
+            this.r =r;
+            this.arg = arg;
+            this.delivery = delivery;
+        }
+        /**
+         * Return the subscribed receiver, or null if it has been garbage
+         * collected.
+         */
+        public Receiver getReceiver() {
+            return r.get();
+        }
+        public Object getArg() {
+            return arg;
+        }
+        public Delivery getDelivery() {
+            return delivery;
+        }
+        @Override
+        public String toString() {
+            String s = "Receiver: " + r.get() + "\n";
+            s = s + "  receiver's arg: " + arg + "\n";
+            s = s + "  delivery: " + delivery;
+            return s;
+        }
     }
-}
 
-/**
- * An incredibly useful (if not very java-like) singleton message-passing class.
- * 
- * @author seanh
- */
-final public class Messager { // Class is final so it can't be subclassed.
+    /**
+     * The ways that a message can be delivered to a receiver.
+     */
+    public enum Delivery {
+        /**
+         * Call the receiver on the thread that sent the message, before send
+         * returns.
+         */
+        SYNCHRONOUS,
+        /**
+         * Call the receiver on the event dispatch thread. If the message is
+         * sent on the event dispatch thread the receiver is called before
+         * send returns, otherwise the call is posted to the event queue.
+         */
+        EVENT_DISPATCH_THREAD,
+        /**
+         * Post the call to the messager's background thread, so that a slow
+         * receiver doesn't hold up the sender. Receivers with this delivery
+         * are called one at a time, in the order that messages were sent.
+         */
+        BACKGROUND
+    }
     
     /**
      * The single object-instance of messager.
@@ -63,25 +211,22 @@ final public class Messager { // Class is final so it can't be subclassed.
     private static Messager m = new Messager();
 
     /**
-     * A HashMap that maps message names (Strings) to lists of Subscription
-     * objects. Every time a Receiver subscribes to a message name using the
-     * accept method a Subscription object is added to the appropriate list.
+     * If verbose, the messager will do a System.out.println whenever it
+     * receives a message or a message subscription. For debugging.
      */
-    private HashMap<String,ArrayList<Subscription>> subscriptions
-            = new HashMap<String,ArrayList<Subscription>>();
+    private volatile boolean verbose = false;
 
     /**
-     * Same as the above field subscriptions, but for the one-time subscriptions
-     * made using the acceptOnce method.
+     * The thread that BACKGROUND subscriptions are called on, created when it
+     * is first needed.
      */
-    private HashMap<String,ArrayList<Subscription>> one_time_subscriptions
-            = new HashMap<String,ArrayList<Subscription>>();
-    
+    private ExecutorService background = null;
+
     /**
-     * If verbose, the messager will do a System.out.println whenever it
-     * receives a message or a message subscription. For debugging.
+     * Where the references to garbage collected receivers and senders are
+     * enqueued.
      */
-    private boolean verbose = false;
+    private final ReferenceQueue<Object> stale = new ReferenceQueue<Object>();
         
     private Messager() { // Constructor is private, no other class can use it.
         
@@ -97,116 +242,512 @@ final public class Messager { // Class is final so it can't be subclassed.
     }
     
     /**
-     * Send a message with the given name and the given argument, all receivers
-     * subscribed to the message name will be notified and passed the message
-     * argument.
+     * Send a message with the given argument, all receivers subscribed to the
+     * message will be notified and passed the message argument.
      * 
-     * @param name  The name of the message to send
+     * @param message The message to send
      * @param arg   The object to pass to the receive methods as sender_arg 
      */
-    public void send(String name, Object arg) {        
+    public void send(Message message, Object arg) {        
         if (verbose) {
-            System.out.println("Sending message: " + name);
+            System.out.println("Sending message: " + message);
         }
+        expungeStaleSubscriptions();
         
-        if (subscriptions.containsKey(name)) {        
-            for (Subscription s : subscriptions.get(name)) {
-                Receiver r = s.getReceiver();
-                r.receive(name,s.getArg(),arg);
-                if (verbose) {
-                    System.out.println("   Sent to " + r);
-                }
-            }
+        // Each receiver's time is measured from the end of the previous
+        // receiver's, so that there is only one System.nanoTime() call per
+        // receiver (it's not free).
+        long time = now();
+        Subscription[] all = message.subscriptions;
+        for (Subscription s : all) {
+            time = deliver(s, message, arg, time);
         }
         
-        if (one_time_subscriptions.containsKey(name)) {        
-            for (Subscription s : one_time_subscriptions.get(name)) {
-                Receiver r = s.getReceiver();
-                r.receive(name,s.getArg(),arg);
-                if (verbose) {
-                    System.out.println("   Sent to " + r + " (one time)");
+        Subscription[] fromSender = Message.NO_SUBSCRIPTIONS;
+        Subscription[] oneTime = Message.NO_SUBSCRIPTIONS;
+        synchronized (message) {
+            if (message.senderSubscriptions != null && arg != null) {
+                message.senderProbe.aim(arg);
+                Subscription[] subscriptions =
+                        message.senderSubscriptions.get(message.senderProbe);
+                message.senderProbe.aim(null);
+                if (subscriptions != null) {
+                    fromSender = subscriptions;
                 }
             }
-            one_time_subscriptions.remove(name);
-        }        
+            if (message.oneTimeSubscriptions.length > 0) {
+                // Unsubscribe before sending, so that a receiver that
+                // subscribes again from its receive method gets the next
+                // message.
+                oneTime = message.oneTimeSubscriptions;
+                message.oneTimeSubscriptions = Message.NO_SUBSCRIPTIONS;
+            }
+        }
+        for (Subscription s : fromSender) {
+            time = deliver(s, message, arg, time);
+        }
+        for (Subscription s : oneTime) {
+            time = deliver(s, message, arg, time);
+        }
+        if (MessageStatistics.ENABLED) {
+            // Stale subscriptions were expunged above, so (unless a receiver
+            // was collected in the meantime) this is the number of receivers.
+            message.statistics.sent(all.length + fromSender.length
+                    + oneTime.length);
+        }
+    }
+
+    /**
+     * Send the message with the given name.
+     *
+     * @see #send(Message, Object)
+     */
+    public void send(String name, Object arg) {
+        send(Message.get(name), arg);
+    }
+
+    /**
+     * Call s's receiver with a message, on the thread that s asks for.
+     *
+     * @param time The time (from now()) that the call is starting at.
+     * @return The time that the call finished at.
+     */
+    private long deliver(final Subscription s, final Message message,
+            final Object arg, long time) {
+        final Receiver r = s.getReceiver();
+        if (r == null) {
+            // Garbage collected, not purged yet.
+            return time;
+        }
+        if (verbose) {
+            System.out.println("   Sending to " + r + " (" + s.getDelivery() + ")");
+        }
+        switch (s.getDelivery()) {
+            case SYNCHRONOUS:
+                return call(r, s, message, arg, time);
+            case EVENT_DISPATCH_THREAD:
+                if (SwingUtilities.isEventDispatchThread()) {
+                    return call(r, s, message, arg, time);
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    public void run() {
+                        call(r, s, message, arg, now());
+                    }
+                });
+                break;
+            case BACKGROUND:
+                getBackground().execute(new Runnable() {
+
+                    public void run() {
+                        try {
+                            call(r, s, message, arg, now());
+                        } catch (RuntimeException e) {
+                            Logger.getLogger(Messager.class.getName()).log(
+                                    Level.SEVERE, "Exception when delivering message " + message + " to " + r, e);
+                        }
+                    }
+                });
+                break;
+        }
+        return now();
+    }
+
+    /**
+     * Call r's receive method on the current thread, timing it for the
+     * message's statistics.
+     *
+     * @param start The time (from now()) that the call is starting at.
+     * @return The time that the call finished at.
+     */
+    private static long call(Receiver r, Subscription s, Message message,
+            Object arg, long start) {
+        if (!MessageStatistics.ENABLED) {
+            r.receive(message, s.getArg(), arg);
+            return 0;
+        }
+        long end;
+        try {
+            r.receive(message, s.getArg(), arg);
+        } finally {
+            end = System.nanoTime();
+            message.statistics.received(r, end - start);
+        }
+        return end;
+    }
+
+    /**
+     * Return System.nanoTime() if statistics are being kept, 0 otherwise.
+     */
+    private static long now() {
+        return MessageStatistics.ENABLED ? System.nanoTime() : 0;
+    }
+
+    private synchronized ExecutorService getBackground() {
+        if (background == null) {
+            background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Messager");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return background;
     }
     
     /**
-     * Register with the messager to receive messages with the given name, the
-     * messager will call the receiver's receive method to notify of each 
-     * message sent.
+     * Register with the messager to receive the given message, the messager
+     * will call the receiver's receive method to notify of each message sent.
+     * 
+     * @param message The message to subscribe to
+     * @param r     The receiver to subscribe
+     * @param arg   The object to pass to the receive method as receiver_arg
+     */
+    public void accept(Message message, Receiver r, Object arg) {
+        accept(message, r, arg, Delivery.SYNCHRONOUS);
+    }
+
+    /**
+     * Register with the messager to receive the given message, the messager
+     * will call the receiver's receive method to notify of each message sent.
      * 
-     * @param name  The message name to subscribe to
+     * @param message The message to subscribe to
      * @param r     The receiver to subscribe
      * @param arg   The object to pass to the receive method as receiver_arg
+     * @param delivery Which thread to call the receiver on
+     */
+    public void accept(Message message, Receiver r, Object arg,
+            Delivery delivery) {
+        expungeStaleSubscriptions();
+        synchronized (message) {
+            message.subscriptions = append(message.subscriptions,
+                    newSubscription(message, r, arg, delivery));
+        }
+        if (verbose) {
+            System.out.println(r + " subscribed to event " + message + " with argument " + arg);
+        }
+    }
+
+    /**
+     * Subscribe to the message with the given name.
+     *
+     * @see #accept(Message, Receiver, Object)
      */
     public void accept(String name, Receiver r, Object arg) {
-        if (!subscriptions.containsKey(name)){
-            subscriptions.put(name,new ArrayList<Subscription>());
+        accept(Message.get(name), r, arg);
+    }
+
+    /**
+     * Register with the messager to receive the given message only when it is
+     * sent with the given sender as its argument (the same object, not just
+     * an equal one).
+     *
+     * @param message The message to subscribe to
+     * @param sender The sender argument to receive the message for
+     * @param r     The receiver to subscribe
+     * @param arg   The object to pass to the receive method as receiver_arg
+     */
+    public void acceptFrom(Message message, Object sender, Receiver r,
+            Object arg) {
+        acceptFrom(message, sender, r, arg, Delivery.SYNCHRONOUS);
+    }
+
+    /**
+     * Register with the messager to receive the given message only when it is
+     * sent with the given sender as its argument (the same object, not just
+     * an equal one).
+     *
+     * @param message The message to subscribe to
+     * @param sender The sender argument to receive the message for
+     * @param r     The receiver to subscribe
+     * @param arg   The object to pass to the receive method as receiver_arg
+     * @param delivery Which thread to call the receiver on
+     */
+    public void acceptFrom(Message message, Object sender, Receiver r,
+            Object arg, Delivery delivery) {
+        expungeStaleSubscriptions();
+        synchronized (message) {
+            if (message.senderSubscriptions == null) {
+                message.senderSubscriptions =
+                        new HashMap<SenderKey,Subscription[]>();
+            }
+            SenderKey key = new SenderKey(sender, message, stale);
+            Subscription[] subscriptions = message.senderSubscriptions.get(key);
+            if (subscriptions == null) {
+                subscriptions = Message.NO_SUBSCRIPTIONS;
+            }
+            // Put the new key even if there was an equal one, it's the same
+            // sender.
+            message.senderSubscriptions.remove(key);
+            message.senderSubscriptions.put(key, append(subscriptions,
+                    newSubscription(message, r, arg, delivery)));
         }
-        Subscription s = new Subscription(r,arg);
-        subscriptions.get(name).add(s);
         if (verbose) {
-            System.out.println(r + " subscribed to event " + name + " with argument " + arg);
+            System.out.println(r + " subscribed to event " + message + " from " + sender + " with argument " + arg);
         }
     }
 
     /**
-     * Register with the messager to receive the next message only with the
-     * given name, the messager will call the receiver's receive method to
+     * Register with the messager to receive the next sending of the given
+     * message only, the messager will call the receiver's receive method to
      * notify when the message is sent.
-     * a string listing all of the subscriptions held by the messager.
-     * @param name  The message name to subscribe to
+     *
+     * @param message The message to subscribe to
      * @param r     The receiver to subscribe
      * @param arg   The object to pass to the receive method as receiver_arg
      */
-    public void acceptOnce(String name, Receiver r, Object arg) {
-        if (!one_time_subscriptions.containsKey(name)){
-            one_time_subscriptions.put(name,new ArrayList<Subscription>());
+    public void acceptOnce(Message message, Receiver r, Object arg) {
+        acceptOnce(message, r, arg, Delivery.SYNCHRONOUS);
+    }
+
+    /**
+     * Register with the messager to receive the next sending of the given
+     * message only, the messager will call the receiver's receive method to
+     * notify when the message is sent.
+     *
+     * @param message The message to subscribe to
+     * @param r     The receiver to subscribe
+     * @param arg   The object to pass to the receive method as receiver_arg
+     * @param delivery Which thread to call the receiver on
+     */
+    public void acceptOnce(Message message, Receiver r, Object arg,
+            Delivery delivery) {
+        expungeStaleSubscriptions();
+        synchronized (message) {
+            message.oneTimeSubscriptions = append(message.oneTimeSubscriptions,
+                    newSubscription(message, r, arg, delivery));
         }
-        Subscription s = new Subscription(r,arg);
-        one_time_subscriptions.get(name).add(s);
         if (verbose) {
-            System.out.println(r + " subscribed to event " + name + " with argument " + arg + " once only ");
+            System.out.println(r + " subscribed to event " + message + " with argument " + arg + " once only ");
         }
     }
+
+    /**
+     * Subscribe once only to the message with the given name.
+     *
+     * @see #acceptOnce(Message, Receiver, Object)
+     */
+    public void acceptOnce(String name, Receiver r, Object arg) {
+        acceptOnce(Message.get(name), r, arg);
+    }
  
     /**
      * Remove all subscriptions made by the given receiver object to the given
-     * message name.
+     * message (including subscriptions to particular senders and one-time
+     * subscriptions).
      * 
-     * @param name  The message name to unsubscribe from
+     * @param message The message to unsubscribe from
+     * @param r     The receiver to unsubscribe
+     */
+    public void ignore(Message message, Receiver r) {        
+        expungeStaleSubscriptions();
+        synchronized (message) {
+            remove(message, r);
+        }
+    }
+
+    /**
+     * Remove the subscriptions made by the given receiver object to the given
+     * message from the given sender.
+     *
+     * @param message The message to unsubscribe from
+     * @param sender The sender that the subscriptions are for
      * @param r     The receiver to unsubscribe
      */
-    public void ignore(String name, Receiver r) {        
-        if (subscriptions.containsKey(name)) {
-            ArrayList<Subscription> new_subscriptions = 
-                                                  new ArrayList<Subscription>();
-            for (Subscription s : subscriptions.get(name)) {
-                if (!(s.getReceiver() == r)) {
-                    new_subscriptions.add(s);
+    public void ignoreFrom(Message message, Object sender, Receiver r) {
+        expungeStaleSubscriptions();
+        synchronized (message) {
+            if (message.senderSubscriptions == null) {
+                return;
+            }
+            SenderKey key = new SenderKey(sender, null, null);
+            Subscription[] subscriptions = message.senderSubscriptions.get(key);
+            if (subscriptions != null) {
+                subscriptions = remove(subscriptions, r);
+                if (subscriptions.length == 0) {
+                    message.senderSubscriptions.remove(key);
+                } else {
+                    message.senderSubscriptions.put(key, subscriptions);
                 }
             }
-            // Replace the old list of subscriptions for name with the new one.
-            subscriptions.put(name,new_subscriptions);
         }
     }
 
     /**
-     * Remove all subscriptions made by the given receiver object.
+     * Unsubscribe from the message with the given name.
+     *
+     * @see #ignore(Message, Receiver)
+     */
+    public void ignore(String name, Receiver r) {
+        ignore(Message.get(name), r);
+    }
+
+    /**
+     * Remove all subscriptions made by the given receiver object, to any
+     * message.
      * 
      * @param r     The receiver to unsubscribe
      */
     public void ignoreAll(Receiver r) {
-        // TODO.
+        expungeStaleSubscriptions();
+        for (Message message : Message.getAll()) {
+            synchronized (message) {
+                remove(message, r);
+            }
+        }
     }
     
     /**
      * Clear all subscriptions with the messager.
      */
     public void clear() {
-        subscriptions = new HashMap<String,ArrayList<Subscription>>();
-        one_time_subscriptions = new HashMap<String,ArrayList<Subscription>>();
+        for (Message message : Message.getAll()) {
+            synchronized (message) {
+                message.subscriptions = Message.NO_SUBSCRIPTIONS;
+                message.oneTimeSubscriptions = Message.NO_SUBSCRIPTIONS;
+                message.senderSubscriptions = null;
+            }
+        }
+    }
+
+    /**
+     * Return the number of subscriptions whose receivers haven't been garbage
+     * collected.
+     */
+    int countSubscriptions() {
+        return countSubscriptions(null);
+    }
+
+    /**
+     * Return the number of subscriptions made by the given receiver, to any
+     * message (or by any receiver that hasn't been garbage collected, if r is
+     * null).
+     */
+    int countSubscriptions(Receiver r) {
+        expungeStaleSubscriptions();
+        int count = 0;
+        for (Message message : Message.getAll()) {
+            synchronized (message) {
+                count += count(message.subscriptions, r);
+                count += count(message.oneTimeSubscriptions, r);
+                if (message.senderSubscriptions != null) {
+                    for (Subscription[] subscriptions :
+                            message.senderSubscriptions.values()) {
+                        count += count(subscriptions, r);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of the given subscriptions made by r (or all of them,
+     * if r is null).
+     */
+    private static int count(Subscription[] subscriptions, Receiver r) {
+        if (r == null) {
+            return subscriptions.length;
+        }
+        int count = 0;
+        for (Subscription s : subscriptions) {
+            if (s.getReceiver() == r) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove the subscriptions whose receivers or senders have been garbage
+     * collected, for each message that has any.
+     */
+    private void expungeStaleSubscriptions() {
+        Reference<?> ref = stale.poll();
+        if (ref == null) {
+            return;
+        }
+        // Often a whole story's worth of references are enqueued at once, so
+        // purge each message once rather than once per reference.
+        Set<Message> messages = new HashSet<Message>();
+        for (; ref != null; ref = stale.poll()) {
+            messages.add(((MessageReference<?>) ref).getMessage());
+        }
+        for (Message message : messages) {
+            synchronized (message) {
+                remove(message, null);
+            }
+        }
+    }
+
+    /**
+     * Make a new subscription to the given message that refers to r weakly.
+     */
+    private Subscription newSubscription(Message message, Receiver r,
+            Object arg, Delivery delivery) {
+        return new Subscription(
+                new MessageReference<Receiver>(r, message, stale), arg,
+                delivery);
+    }
+
+    /**
+     * Remove all of r's subscriptions to the given message, and any whose
+     * receivers or senders have been garbage collected. Must be called holding
+     * message's lock.
+     */
+    private static void remove(Message message, Receiver r) {
+        message.subscriptions = remove(message.subscriptions, r);
+        message.oneTimeSubscriptions = remove(message.oneTimeSubscriptions, r);
+        if (message.senderSubscriptions != null) {
+            Iterator<Map.Entry<SenderKey,Subscription[]>> i =
+                    message.senderSubscriptions.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<SenderKey,Subscription[]> e = i.next();
+                Subscription[] subscriptions = remove(e.getValue(), r);
+                if (subscriptions.length == 0 || e.getKey().get() == null) {
+                    i.remove();
+                } else {
+                    e.setValue(subscriptions);
+                }
+            }
+            if (message.senderSubscriptions.isEmpty()) {
+                message.senderSubscriptions = null;
+            }
+        }
+    }
+
+    /**
+     * Return a copy of subscriptions with s added to the end.
+     */
+    private static Subscription[] append(Subscription[] subscriptions,
+            Subscription s) {
+        Subscription[] copy = Arrays.copyOf(subscriptions,
+                subscriptions.length + 1);
+        copy[subscriptions.length] = s;
+        return copy;
+    }
+
+    /**
+     * Return a copy of subscriptions without any of r's subscriptions or any
+     * whose receivers have been garbage collected (or subscriptions itself,
+     * if there are none).
+     */
+    private static Subscription[] remove(Subscription[] subscriptions,
+            Receiver r) {
+        Subscription[] copy = new Subscription[subscriptions.length];
+        int count = 0;
+        for (Subscription s : subscriptions) {
+            Receiver receiver = s.getReceiver();
+            if (receiver != r && receiver != null) {
+                copy[count++] = s;
+            }
+        }
+        if (count == subscriptions.length) {
+            return subscriptions;
+        }
+        return Arrays.copyOf(copy, count);
     }
     
     /**
@@ -217,9 +758,27 @@ final public class Messager { // Class is final so it can't be subclassed.
     @Override
     public String toString() {
         String s = "Subscriptions:\n";
-        s = s + subscriptions + "\n";
+        for (Message message : Message.getAll()) {
+            if (message.subscriptions.length > 0) {
+                s = s + message + "=" + Arrays.toString(message.subscriptions) + "\n";
+            }
+        }
+        s = s + "Subscriptions to particular senders:\n";
+        for (Message message : Message.getAll()) {
+            synchronized (message) {
+                if (message.senderSubscriptions != null) {
+                    for (Map.Entry<SenderKey,Subscription[]> e : message.senderSubscriptions.entrySet()) {
+                        s = s + message + " from " + e.getKey().get() + "=" + Arrays.toString(e.getValue()) + "\n";
+                    }
+                }
+            }
+        }
         s = s + "One-time subscriptions:\n";
-        s = s + one_time_subscriptions + "\n";
+        for (Message message : Message.getAll()) {
+            if (message.oneTimeSubscriptions.length > 0) {
+                s = s + message + "=" + Arrays.toString(message.oneTimeSubscriptions) + "\n";
+            }
+        }
         return s;
     }
 }
\ No newline at end of file
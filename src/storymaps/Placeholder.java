@@ -20,19 +20,40 @@
 */
 package storymaps;
 
-import edu.umd.cs.piccolo.nodes.PImage;
+import edu.umd.cs.piccolo.PNode;
 import java.util.logging.Logger;
 
-class Placeholder extends StoryCardBase implements Originator {
+/**
+ * An empty slot in a story map's grid that a story card can be placed on.
+ *
+ * A placeholder's node is never drawn, it's only there to take up a card's
+ * worth of space in the grid. So it's a plain PNode with a card's bounds and
+ * no image (story maps can have thousands of placeholders).
+ *
+ * @author seanh
+ */
+class Placeholder implements Originator {
             
-    private PImage background;
+    private final PNode node;
     private boolean taken = false;
     private StoryCard storycard = null;
+
+    /**
+     * The index of the story map that this placeholder belongs to, and this
+     * placeholder's slot in it, or null if it doesn't belong to one yet.
+     */
+    private PlaceholderIndex index = null;
+    private int slot;
     
     public Placeholder() {
-        super(Function.getFunctions().get(0));
-        getNode().addAttribute("Placeholder",this);
-        getNode().setVisible(false);
+        node = new PNode();
+        node.setBounds(StoryCardBase.getCardBounds());
+        node.addAttribute("Placeholder",this);
+        node.setVisible(false);
+    }
+
+    PNode getNode() {
+        return node;
     }
                                      
     public boolean taken() {
@@ -50,6 +71,9 @@ class Placeholder extends StoryCardBase implements Originator {
             s.getNode().addAttribute("Placeholder",this);            
             storycard = s;
             taken = true;
+            if (index != null) {
+                index.setCard(slot, s);
+            }
         }
     }
     
@@ -57,6 +81,26 @@ class Placeholder extends StoryCardBase implements Originator {
         storycard.getNode().addAttribute("Placeholder",null);
         storycard = null;
         taken = false;
+        if (index != null) {
+            index.setCard(slot, null);
+        }
+    }
+
+    /**
+     * Add this placeholder to a story map's index, at the given slot.
+     */
+    void setIndex(PlaceholderIndex index, int slot) {
+        this.index = index;
+        this.slot = slot;
+        index.setCard(slot, storycard);
+    }
+
+    PlaceholderIndex getIndex() {
+        return index;
+    }
+
+    int getSlot() {
+        return slot;
     }
 
     // Implement Originator
@@ -0,0 +1,325 @@
+
+/* 
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An index of a story map's placeholders and the story cards on them, for
+ * finding the nearest free placeholder to a point (where a story card was
+ * dropped) and for finding the story map's cards without looking at every
+ * placeholder.
+ *
+ * Placeholders are identified by their slot, their index in the story map's
+ * list of placeholders. Placeholder tells the index whenever it is taken or
+ * cleared (see setCard). The index keeps a BitSet of which slots are free, the
+ * cards in slot order and the cards by function number, and buckets the
+ * slots' positions into a uniform grid of cells about one placeholder apart.
+ * A search looks at the cells in rings around the point, nearest first, and
+ * stops as soon as no cell further out could hold anything nearer, so it only
+ * looks at a handful of placeholders however many there are. Cells with no
+ * free slots are skipped without looking at their slots. Distances are
+ * compared squared, there's no need for square roots.
+ *
+ * The same grid is used to find the slots inside a rectangle, for finding
+ * which of the story map's cards are on screen.
+ *
+ * Positions are in the coordinates of the layout node that holds the
+ * placeholders. They're only read when the layout changes: the story map calls
+ * invalidate whenever it adds placeholders and the grid is rebuilt by the next
+ * search.
+ *
+ * @author seanh
+ */
+final class PlaceholderIndex {
+
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final BitSet free = new BitSet();
+
+    private final SortedMap<Integer,StoryCard> cardsBySlot =
+            new TreeMap<Integer,StoryCard>();
+
+    private final Map<Integer,StoryCard> cardsByFunction =
+            new HashMap<Integer,StoryCard>();
+
+    /**
+     * A read-only list of the cards in slot order, made from cardsBySlot the
+     * first time it's asked for after a change, or null.
+     */
+    private List<StoryCard> cards = null;
+
+    /**
+     * Where to get the positions of the slots from when the grid is rebuilt.
+     */
+    private final List<Placeholder> placeholders;
+
+    private boolean valid = false;
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private double minX, minY, cellSize;
+    private int columns, rows;
+    private int[][] cells;
+    private int[] freeInCell;
+    private int[] cellOfSlot;
+
+    /**
+     * @param placeholders The story map's list of placeholders, in slot order.
+     * The index keeps a reference to the list and reads it when it rebuilds.
+     */
+    PlaceholderIndex(List<Placeholder> placeholders) {
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Record that the given card has been put on the given slot, or that the
+     * slot has been cleared if card is null.
+     */
+    void setCard(int slot, StoryCard card) {
+        StoryCard previous = card == null ? cardsBySlot.remove(slot)
+                : cardsBySlot.put(slot, card);
+        if (previous != card) {
+            cards = null;
+            if (previous != null) {
+                Integer number = previous.getFunction().getNumber();
+                // Only if it's still the function's card (stories can't have
+                // two cards for the same function, but make sure).
+                if (cardsByFunction.get(number) == previous) {
+                    cardsByFunction.remove(number);
+                }
+            }
+            if (card != null) {
+                cardsByFunction.put(card.getFunction().getNumber(), card);
+            }
+        }
+        setFree(slot, card == null);
+    }
+
+    /**
+     * Return a read-only list of the cards on the placeholders, in slot order.
+     * The list doesn't change when cards are added or removed, a new one is
+     * returned.
+     */
+    List<StoryCard> getCards() {
+        if (cards == null) {
+            cards = Collections.unmodifiableList(
+                    new ArrayList<StoryCard>(cardsBySlot.values()));
+        }
+        return cards;
+    }
+
+    /**
+     * Return the card for the given function, or null if there isn't one on
+     * the placeholders.
+     */
+    StoryCard getCard(int function) {
+        return cardsByFunction.get(function);
+    }
+
+    private void setFree(int slot, boolean isFree) {
+        if (free.get(slot) == isFree) {
+            return;
+        }
+        free.set(slot, isFree);
+        if (valid && slot < cellOfSlot.length) {
+            freeInCell[cellOfSlot[slot]] += isFree ? 1 : -1;
+        }
+    }
+
+    /**
+     * Return the number of free slots.
+     */
+    int freeCount() {
+        return free.cardinality();
+    }
+
+    /**
+     * Return true if there's at least one free slot.
+     */
+    boolean hasFree() {
+        return !free.isEmpty();
+    }
+
+    /**
+     * Forget the positions of the slots, because the placeholders have been
+     * laid out again.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Return the free slot nearest to the point (x,y), or -1 if there are no
+     * free slots.
+     */
+    int findNearestFree(double x, double y) {
+        if (free.isEmpty()) {
+            return -1;
+        }
+        if (!valid) {
+            rebuild();
+        }
+        int cx = clamp((int) Math.floor((x - minX) / cellSize), columns);
+        int cy = clamp((int) Math.floor((y - minY) / cellSize), rows);
+        int maxRing = Math.max(Math.max(cx, columns - 1 - cx),
+                Math.max(cy, rows - 1 - cy));
+        int nearest = -1;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Every cell in this ring is at least (ring - 1) cells away from
+            // the point, so if we've already found something nearer than that
+            // we're done.
+            double bound = (ring - 1) * cellSize;
+            if (nearest != -1 && ring > 0 && bound * bound > nearestDistance) {
+                break;
+            }
+            for (int j = cy - ring; j <= cy + ring; j++) {
+                if (j < 0 || j >= rows) {
+                    continue;
+                }
+                boolean edgeRow = j == cy - ring || j == cy + ring;
+                // Only the cells on the ring itself, not the ones inside it.
+                int step = edgeRow ? 1 : Math.max(2 * ring, 1);
+                for (int i = cx - ring; i <= cx + ring; i += step) {
+                    if (i < 0 || i >= columns) {
+                        continue;
+                    }
+                    int cell = j * columns + i;
+                    if (freeInCell[cell] == 0) {
+                        continue;
+                    }
+                    for (int slot : cells[cell]) {
+                        if (!free.get(slot)) {
+                            continue;
+                        }
+                        double dx = xs[slot] - x;
+                        double dy = ys[slot] - y;
+                        double distance = dx * dx + dy * dy;
+                        if (distance < nearestDistance
+                                || (distance == nearestDistance && slot < nearest)) {
+                            nearestDistance = distance;
+                            nearest = slot;
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Set the bits in result of all of the slots (free or taken) whose
+     * positions are inside the given rectangle.
+     */
+    void findSlotsIn(double x0, double y0, double x1, double y1,
+            BitSet result) {
+        if (!valid) {
+            rebuild();
+        }
+        if (x1 < minX - cellSize || y1 < minY - cellSize
+                || x0 > minX + columns * cellSize
+                || y0 > minY + rows * cellSize) {
+            return;
+        }
+        int i0 = clamp((int) Math.floor((x0 - minX) / cellSize), columns);
+        int i1 = clamp((int) Math.floor((x1 - minX) / cellSize), columns);
+        int j0 = clamp((int) Math.floor((y0 - minY) / cellSize), rows);
+        int j1 = clamp((int) Math.floor((y1 - minY) / cellSize), rows);
+        for (int j = j0; j <= j1; j++) {
+            for (int i = i0; i <= i1; i++) {
+                for (int slot : cells[j * columns + i]) {
+                    if (xs[slot] >= x0 && xs[slot] <= x1 && ys[slot] >= y0
+                            && ys[slot] <= y1) {
+                        result.set(slot);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int clamp(int i, int n) {
+        return i < 0 ? 0 : (i >= n ? n - 1 : i);
+    }
+
+    /**
+     * Read the positions of all of the slots and bucket them into the grid.
+     */
+    private void rebuild() {
+        int n = placeholders.size();
+        xs = new double[n];
+        ys = new double[n];
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        minX = Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        for (int slot = 0; slot < n; slot++) {
+            Point2D p = placeholders.get(slot).getNode().getOffset();
+            xs[slot] = p.getX();
+            ys[slot] = p.getY();
+            minX = Math.min(minX, xs[slot]);
+            minY = Math.min(minY, ys[slot]);
+            maxX = Math.max(maxX, xs[slot]);
+            maxY = Math.max(maxY, ys[slot]);
+        }
+        if (n == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        // Cells about the size of the space each placeholder takes up, so
+        // there's about one slot per cell.
+        double width = Math.max(maxX - minX, 1);
+        double height = Math.max(maxY - minY, 1);
+        cellSize = Math.max(Math.sqrt(width * height / Math.max(n, 1)), 1);
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+
+        int[] counts = new int[columns * rows];
+        cellOfSlot = new int[n];
+        for (int slot = 0; slot < n; slot++) {
+            int i = clamp((int) ((xs[slot] - minX) / cellSize), columns);
+            int j = clamp((int) ((ys[slot] - minY) / cellSize), rows);
+            cellOfSlot[slot] = j * columns + i;
+            counts[cellOfSlot[slot]]++;
+        }
+        cells = new int[columns * rows][];
+        freeInCell = new int[columns * rows];
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = counts[cell] == 0 ? NO_SLOTS : new int[counts[cell]];
+        }
+        Arrays.fill(counts, 0);
+        for (int slot = 0; slot < n; slot++) {
+            int cell = cellOfSlot[slot];
+            cells[cell][counts[cell]++] = slot;
+            if (free.get(slot)) {
+                freeInCell[cell]++;
+            }
+        }
+        valid = true;
+    }
+}
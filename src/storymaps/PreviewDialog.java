@@ -23,12 +23,10 @@ package storymaps;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
 import java.awt.print.PrinterException;
 import java.io.File;
 import java.io.IOException;
 import java.util.logging.*;
-import javax.imageio.ImageIO;
 import javax.swing.text.Document;
 import javax.swing.text.Element;
 import javax.swing.text.View;
@@ -49,6 +47,7 @@ public class PreviewDialog {
     private final JToolBar toolBar;
     private final Logger logger;
     private final JFileChooser fileChooser = new JFileChooser();
+    private final CardImageExporter imageExporter = new CardImageExporter();
     private StoryMap map;
 
     /**
@@ -151,7 +150,7 @@ public class PreviewDialog {
         this.map = map;
         // Convert the story map to HTML and load it into the editor pane.
         try {
-            String html = new TemplateHandler().renderStoryMap(map,getClass().getResource("/data/functions/").toString());
+            String html = TemplateHandler.getInstance().renderStoryMap(map,getClass().getResource("/data/functions/").toString());
             editor.setText(html);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "IOException when converting StoryMap to HTML", e);
@@ -207,21 +206,25 @@ public class PreviewDialog {
                 File filesPath = new File(parentDir,filesDir);
                 filesPath.mkdirs();
                 try {
-                    String html = new TemplateHandler().renderStoryMap(map, filesDir);
-                    Util.writeTextToFile(html,path);
+                    TemplateHandler.getInstance().exportStoryMap(map, filesDir, path);
                 } catch (TemplateHandlerException ex) {
                    logger.log(Level.SEVERE, "TemplateHandlerException when converting StoryMap to HTML.", ex);
                 }
-                for (int i=0; i < map.getStoryCards().size(); i++) {
-                    StoryCard s = map.getStoryCards().get(i);
-                    try {
-                        BufferedImage bi = Util.toBufferedImage(s.getNode().toImage());
-                        File outputfile = new File(filesPath,s.getFunction().getImageFilename());
-                        ImageIO.write(bi, "png", outputfile);
-                    } catch (IOException e) {
-                        logger.warning("IOException when exporting story card image to file." + e.toString());
+                final ProgressMonitor monitor = new ProgressMonitor(frame,
+                        "Exporting story card images...", null, 0, 1);
+                imageExporter.export(map.getStoryCards(), filesPath, monitor,
+                        new CardImageExporter.Listener() {
+
+                    public void exported(int written, int failed,
+                            boolean canceled) {
+                        monitor.close();
+                        if (failed > 0) {
+                            JOptionPane.showMessageDialog(frame,
+                                    failed + " of the story card images could not be exported.",
+                                    "Save as HTML", JOptionPane.ERROR_MESSAGE);
+                        }
                     }
-                }
+                });
             } catch (IOException e) {
                 logger.log(Level.SEVERE, "IOException when writing HTML representation of StoryMap to file.", e);
             }
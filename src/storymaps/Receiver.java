@@ -28,15 +28,17 @@ package storymaps;
  */
 interface Receiver {    
     /**
-     * This method is called by the messager when a message is sent with a name
-     * that this receiver is subscribed to. Subclasses should override this
-     * method to receive messages.
+     * This method is called by the messager when a message is sent that this
+     * receiver is subscribed to. Subclasses should override this method to
+     * receive messages.
      * 
-     * @param name The name of the message that was sent.
+     * @param message The message that was sent. There is only one Message
+     *                object for each message name, so it can be compared
+     *                to the constants in Message with ==.
      * @param receiver_arg The argument that was passed to accept or acceptOnce
-     *                     when subscribing to the message name.
+     *                     when subscribing to the message.
      * @param sender_arg The argument that was passed to send by the object that
      *                   sent the message.
      */
-    public void receive(String name, Object receiver_arg, Object sender_arg);
-}
+    public void receive(Message message, Object receiver_arg, Object sender_arg);
+}
\ No newline at end of file
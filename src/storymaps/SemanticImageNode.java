@@ -27,19 +27,34 @@ import java.awt.Image;
 import edu.umd.cs.piccolo.util.PBounds;
 
 /**
+ * An image node that paints a far (low detail) image when the camera is zoomed
+ * out and the high detail image of a Propp function when zoomed in.
+ *
+ * The images are painted from the function's ImagePyramids in FunctionImages,
+ * using the smallest pre-scaled copy that is at least as big as the node is
+ * on screen, so painting doesn't have to shrink a full size image. The
+ * pyramids aren't held by the node, they're fetched whenever it's painted,
+ * so the high detail images are only read in once a card is actually zoomed
+ * in on and can be thrown away again under memory pressure.
  *
  * @author seanh
  */
 public class SemanticImageNode extends PImage {
 
     private Image farImage;
-    private Image nearImage;
+    private int function;
     private double scale;
 
-    SemanticImageNode(Image farImage, Image nearImage, double scale) {
+    /**
+     * @param farImage The function's image, which sets the node's size.
+     * @param function The number of the function whose images are painted.
+     * @param scale The scale at and above which the high detail image is
+     * painted.
+     */
+    SemanticImageNode(Image farImage, int function, double scale) {
         super(farImage);
         this.farImage = farImage;
-        this.nearImage = nearImage;
+        this.function = function;
         this.scale = scale;
     }
 
@@ -48,17 +63,20 @@ public class SemanticImageNode extends PImage {
     }
 
     Image getNearImage() {
-        return nearImage;
+        return FunctionImages.getHighDetailImage(function);
     }
 
     @Override
     public void paint(PPaintContext paintContext) {
         double s = paintContext.getScale();
+        ImagePyramid pyramid;
         if (s < this.scale) {
-            paintNode(paintContext, farImage);
+            pyramid = FunctionImages.getImagePyramid(function);
         } else {
-            paintNode(paintContext, nearImage);
+            pyramid = FunctionImages.getHighDetailImagePyramid(function);
         }
+        PBounds b = getBoundsReference();
+        paintNode(paintContext, pyramid.getLevel(b.width * s, b.height * s));
     }
 
     private void paintNode(PPaintContext paintContext, Image image) {
@@ -76,4 +94,4 @@ public class SemanticImageNode extends PImage {
             g2.drawImage(image, 0, 0, null);
         }
     }
-}
\ No newline at end of file
+}
@@ -24,13 +24,15 @@ import DragAndDrop.*;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.nodes.PPath;
 import java.awt.Color;
+import java.awt.geom.Point2D;
+import java.util.List;
 
 /**
  * Base class for StoryMap and StoryCards.
  * 
  * @author seanh
  */
-public class StoryBase implements DroppableOwner {
+public class StoryBase implements HighlightingDroppableOwner {
 
     protected PPath background;
         
@@ -40,6 +42,8 @@ public class StoryBase implements DroppableOwner {
 
     private PNode overlay;
 
+    private double margin_top;
+
     private Color color;
 
     public StoryBase(double width, double height, double xoffset,
@@ -47,6 +51,7 @@ public class StoryBase implements DroppableOwner {
             double margin_top, double spacing) {
 
         this.color = color;
+        this.margin_top = margin_top;
 
         background = PPath.createRectangle(0, 0, (float)width, (float)height);
         background.setWidth(width);
@@ -81,6 +86,14 @@ public class StoryBase implements DroppableOwner {
         return false;
     }
     
+    /**
+     * A story card is being dragged over (or off) this story base, show it as
+     * a drop target by brightening the background.
+     */
+    public void highlight(Droppable d, boolean highlighted) {
+        background.setPaint(highlighted ? color.brighter() : color);
+    }
+
     /**
      * Return the root node of this story base.
      */
@@ -94,17 +107,78 @@ public class StoryBase implements DroppableOwner {
     }
 
     /**
-     * Add a node to the grid.
+     * Add a node to the grid. The grid is laid out straight away, unless
+     * this is between beginGridUpdate and endGridUpdate.
      */
     public void addToGrid(PNode node) {
         layout.addChild(node);
         layout.layoutChildren();
     }
+
+    /**
+     * Add some nodes to the end of the grid, in order, and lay out the grid
+     * once at the end (rather than once for each node as addToGrid would).
+     */
+    public void addAllToGrid(List<PNode> nodes) {
+        beginGridUpdate();
+        try {
+            for (PNode node : nodes) {
+                layout.addChild(node);
+            }
+        } finally {
+            endGridUpdate();
+        }
+    }
+
+    /**
+     * Stop laying out the grid until the matching call to endGridUpdate, so
+     * that many nodes can be added to the grid with only one layout.
+     */
+    protected void beginGridUpdate() {
+        layout.beginUpdate();
+    }
+
+    /**
+     * Lay out the grid, if this ends the outermost update started by
+     * beginGridUpdate.
+     */
+    protected void endGridUpdate() {
+        layout.endUpdate();
+    }
     
+    /**
+     * Transform a point from global coordinates to the coordinates of the
+     * grid (the coordinates that nodes added with addToGrid are offset in).
+     * The given point is modified and returned.
+     */
+    protected Point2D globalToGrid(Point2D p) {
+        return layout.globalToLocal(p);
+    }
+
+    /**
+     * Make the background taller, if necessary, so that everything in the
+     * grid fits inside it (with the same margin at the bottom as at the top).
+     */
+    protected void growToFitGrid() {
+        double bottom = layout.getYOffset()
+                + layout.getUnionOfChildrenBounds(null).getMaxY() + margin_top;
+        if (bottom > background.getHeight()) {
+            background.setPathToRectangle(0, 0, (float) background.getWidth(),
+                    (float) bottom);
+        }
+    }
+
     /**
      * Add a node to the overlay.
      */
     public void addToOverlay(PNode node) {
         overlay.addChild(node);
     }
+
+    /**
+     * Return the node that holds the overlay (see addToOverlay).
+     */
+    protected PNode getOverlay() {
+        return overlay;
+    }
 }
\ No newline at end of file
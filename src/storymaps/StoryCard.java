@@ -23,7 +23,6 @@ import DragAndDrop.DragDropObserver;
 import DragAndDrop.Draggable;
 import DragAndDrop.DropEvent;
 import DragAndDrop.NodeAlreadyDraggableException;
-import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.activities.PInterpolatingActivity;
 import edu.umd.cs.piccolo.event.PBasicInputEventHandler;
 import edu.umd.cs.piccolo.event.PInputEvent;
@@ -73,12 +72,12 @@ class StoryCard extends StoryCardBase implements Receiver,
                     // If the StoryCard is double-clicked with the left mouse
                     // button send the "StoryCard double-clicked" message.
                     Messager m = Messager.getMessager();
-                    m.send("StoryCard double-clicked", StoryCard.this);
+                    m.send(Message.STORY_CARD_DOUBLE_CLICKED, StoryCard.this);
                     event.setHandled(true);
                 } else if (event.getButton() == 1 && event.getClickCount() == 1) {
                     // If the StoryCard is single-clicked with the left mouse
                     // button send the "StoryCard single-clicked" message.
-                    Messager.getMessager().send("StoryCard single-clicked", StoryCard.this);
+                    Messager.getMessager().send(Message.STORY_CARD_SINGLE_CLICKED, StoryCard.this);
                     event.setHandled(true);
                 }*/
             }
@@ -93,7 +92,9 @@ class StoryCard extends StoryCardBase implements Receiver,
             // ...
         }       
         
-        Messager.getMessager().accept("drag started", this, null);
+        // Only this card's own drags are of interest.
+        Messager.getMessager().acceptFrom(Message.DRAG_STARTED, getNode(), this,
+                null);
     }
         
     public void attach(DragDropObserver o) {
@@ -193,22 +194,18 @@ class StoryCard extends StoryCardBase implements Receiver,
         }
     }
     
-    public void receive(String name, Object receiver_arg, Object sender_arg) {
-        if (name.equals("drag started")) {
-            if (sender_arg instanceof PNode) {
-                PNode node = (PNode) sender_arg;
-                if (node.equals(getNode())) {
-                    if (activity != null) {
-                        activity.terminate();
-                    }
-                    getNode().setScale(1.0);
-                }
+    public void receive(Message message, Object receiver_arg, Object sender_arg) {
+        if (message == Message.DRAG_STARTED) {
+            // We only subscribe to drags of our own node.
+            if (activity != null) {
+                activity.terminate();
             }
+            getNode().setScale(1.0);
         }
     }
     
-    public boolean notify(DropEvent de) {
-        return true;
+    public Disposition notify(DropEvent de) {
+        return Disposition.KEEP;
     }
 
     public int compareTo(Object arg) {
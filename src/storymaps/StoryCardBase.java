@@ -23,6 +23,7 @@ package storymaps;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.nodes.PImage;
 import edu.umd.cs.piccolo.nodes.PPath;
+import edu.umd.cs.piccolo.util.PBounds;
 import java.awt.Color;
 import java.awt.Image;
 import java.io.IOException;
@@ -43,20 +44,46 @@ abstract class StoryCardBase {
     private PNode node;
     private SemanticImageNode image;
 
+    /**
+     * The bounds of a story card's node, see getCardBounds.
+     */
+    private static PBounds cardBounds = null;
+
     StoryCardBase(Function function) {
         this.function = function;
         node = new PNode();
-        Image farImage = function.getImage();
-        Image nearImage = function.getHighDetailImage();
-        image = new SemanticImageNode(farImage, nearImage, SCALE+0.1);
-        image.setOffset(-0.5*image.getWidth(),-0.5*image.getHeight());
-        image.setScale(SCALE);
-        image.setPickable(false);
+        image = newImageNode(function);
         node.addChild(image);
         node.setBounds(node.getFullBounds());
         node.addAttribute("StoryCard", this);
     }
 
+    /**
+     * Return a new image node for a card of the given function, positioned
+     * and scaled as it is on a story card's node.
+     */
+    private static SemanticImageNode newImageNode(Function function) {
+        SemanticImageNode image = new SemanticImageNode(function.getImage(),
+                function.getNumber(), SCALE+0.1);
+        image.setOffset(-0.5*image.getWidth(),-0.5*image.getHeight());
+        image.setScale(SCALE);
+        image.setPickable(false);
+        return image;
+    }
+
+    /**
+     * Return the bounds of a story card's node, in the node's own coordinates
+     * (centred on the node's offset). All of the function images are the same
+     * size, so these are the bounds of every card. Callers must not modify
+     * the returned bounds.
+     */
+    static synchronized PBounds getCardBounds() {
+        if (cardBounds == null) {
+            cardBounds = newImageNode(Function.getFunctions().get(0)).getFullBounds();
+        }
+        return cardBounds;
+    }
+
     protected PNode getNode() {return node;}
 
     Image getImage() { return image.getFarImage(); }
@@ -33,19 +33,19 @@ public class StoryCardDemo extends PFrame implements Receiver {
     // Override PFrame's initialize method to run the demo.
     @Override
     public void initialize() {
-        Function f = new Function(1,"Name","Description","Instructions");
+        Function f = Function.getFunction(1);
         StoryCard card = new StoryCard(f, "A villainous act by a villain, committed in a villainous way and, generally, in the spirit of villainy.");
         getCanvas().getLayer().addChild(card.getNode());
         Messager m = Messager.getMessager();
-        m.accept("StoryCard clicked", this, null);
+        m.accept(Message.STORY_CARD_CLICKED, this, null);
     }
     
     public static void main(String args[]) {
         StoryCardDemo demo = new StoryCardDemo();
     }
     
-     public void receive(String name, Object receiver_arg, Object sender_arg) {
-         if (name.equals("StoryCard clicked")) {
+     public void receive(Message message, Object receiver_arg, Object sender_arg) {
+         if (message == Message.STORY_CARD_CLICKED) {
             PCamera cam = getCanvas().getCamera();
             StoryCard card = (StoryCard) sender_arg;
             PNode node = card.getNode();
@@ -21,8 +21,11 @@
 package storymaps;
 
 import DragAndDrop.*;
+import edu.umd.cs.piccolo.PNode;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.awt.Color;
 import java.util.logging.Logger;
 
@@ -60,6 +63,13 @@ class StoryCards extends StoryBase implements DragDropObserver, Originator {
     private ArrayList<DisabledStoryCard> disabled_storycards =
             new ArrayList<DisabledStoryCard>();
 
+    /**
+     * The DisabledStoryCards keyed by the number of their function (the
+     * first one, if there's more than one for a function).
+     */
+    private Map<Integer,DisabledStoryCard> disabledByFunction =
+            new HashMap<Integer,DisabledStoryCard>();
+
     private static final double left_margin = 25;
     private static final double top_margin = 23;
     private static final double spacing = 9;
@@ -75,11 +85,11 @@ class StoryCards extends StoryBase implements DragDropObserver, Originator {
         // For each Propp function, add a DisabledStoryCard to the grid node.
         // Keep references to all these DisabledStoryCards in
         // disabled_storycards.
+        List<DisabledStoryCard> disabled = new ArrayList<DisabledStoryCard>();
         for (Function f : Function.getFunctions()) {
-            DisabledStoryCard d = new DisabledStoryCard(f);
-            addToGrid(d.getNode());
-            disabled_storycards.add(d);
+            disabled.add(new DisabledStoryCard(f));
         }
+        addDisabledStoryCards(disabled);
         
         // Add a duplicate StoryCard on top of each DisabledStoryCard.
         for (DisabledStoryCard d : disabled_storycards) {
@@ -98,10 +108,7 @@ class StoryCards extends StoryBase implements DragDropObserver, Originator {
 
         super(width, height, xoffset, yoffset, color, left_margin, top_margin, spacing);
 
-        for (DisabledStoryCard dsc : disabled_storycards) {
-            addToGrid(dsc.getNode());
-            this.disabled_storycards.add(dsc);
-        }
+        addDisabledStoryCards(disabled_storycards);
 
         for (DisabledStoryCard dsc : disabled_storycards) {
             StoryCard sc = dsc.getStoryCard();
@@ -111,18 +118,30 @@ class StoryCards extends StoryBase implements DragDropObserver, Originator {
         }
     }
 
+    /**
+     * Add some DisabledStoryCards to the end of the grid, laying out the grid
+     * once.
+     */
+    private void addDisabledStoryCards(List<DisabledStoryCard> disabled) {
+        List<PNode> nodes = new ArrayList<PNode>(disabled.size());
+        for (DisabledStoryCard d : disabled) {
+            disabled_storycards.add(d);
+            Integer number = d.getFunction().getNumber();
+            if (!disabledByFunction.containsKey(number)) {
+                disabledByFunction.put(number, d);
+            }
+            nodes.add(d.getNode());
+        }
+        addAllToGrid(nodes);
+    }
+
     /**
      * Return a DisabledStoryCard from disabled_storycards that has the same
      * function as s, or null if no such story card exists in
      * disabled_storycards.
      */
     private DisabledStoryCard findDisabledStoryCard(StoryCard s) {
-        for (DisabledStoryCard d : disabled_storycards) {
-            if (d.getFunction().compare(s.getFunction())) {
-                return d;
-            }
-        }
-        return null;
+        return disabledByFunction.get(s.getFunction().getNumber());
     }
 
     /**
@@ -130,12 +149,10 @@ class StoryCards extends StoryBase implements DragDropObserver, Originator {
      * or null if no such story card exists in this story map.
      */
     private StoryCard findStoryCard(StoryCard s) {
-        for (StoryCard c : getStoryCards()) {
-            if (c.getFunction().compare(s.getFunction())) {
-                return c;
-            }
-        }
-        return null;
+        // Every story card in this StoryCards is held by the DisabledStoryCard
+        // for its function.
+        DisabledStoryCard d = findDisabledStoryCard(s);
+        return d == null ? null : d.getStoryCard();
     }    
     
     /**
@@ -205,21 +222,21 @@ class StoryCards extends StoryBase implements DragDropObserver, Originator {
     /**
      * Called when a draggable that this story map is subscribed to is dropped
      * onto something. Get the StoryCard that the Draggable instance belongs to
-     * and remove it from storycards, then return false to unsubscribe from the
-     * Draggable instance.
+     * and remove it from storycards, then return DETACH to unsubscribe from
+     * the Draggable instance.
      */
-    public boolean notify(DropEvent de) {
+    public Disposition notify(DropEvent de) {
         Draggable draggee = de.getDraggee();
         Droppable droppee = de.getDroppee();        
             
         if (droppee == this.background.getAttribute("Droppable")) {            
-            return true;
+            return Disposition.KEEP;
         }        
         
         StoryCard s = (StoryCard) draggee.getNode().getAttribute("StoryCard");
         DisabledStoryCard d = (DisabledStoryCard) s.getNode().getAttribute("DisabledStoryCard");
         d.clearStoryCard();
-        return false;
+        return Disposition.DETACH;
     }
 
     // Implement Originator
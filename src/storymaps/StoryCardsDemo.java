@@ -72,11 +72,11 @@ public class StoryCardsDemo extends PFrame implements Receiver {
         // Listen for 'clicked' messages from story cards (the receive method
         // will be called), this is how we make RMB zoom in on cards.
         Messager m = Messager.getMessager();
-        m.accept("StoryCard clicked", this, null);        
+        m.accept(Message.STORY_CARD_CLICKED, this, null);        
     }
 
-     public void receive(String name, Object receiver_arg, Object sender_arg) {
-         if (name.equals("StoryCard clicked")) {
+     public void receive(Message message, Object receiver_arg, Object sender_arg) {
+         if (message == Message.STORY_CARD_CLICKED) {
             PCamera cam = getCanvas().getCamera();
             StoryCard card = (StoryCard) sender_arg;
             PNode node = card.getNode();
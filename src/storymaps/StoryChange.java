@@ -0,0 +1,108 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+/**
+ * A single change to a story, as recorded in the autosave journal (see
+ * AutosaveJournal). StoryChange objects are produced by
+ * StorySnapshot.changesSince and replayed by StorySnapshot.apply.
+ *
+ * StoryChange is immutable. Use the static factory methods to create
+ * instances.
+ *
+ * @author seanh
+ */
+final class StoryChange {
+
+    /**
+     * The different kinds of change that can be recorded.
+     */
+    enum Kind {
+        /** The story's title was changed. */
+        TITLE,
+        /** A story card was placed onto a free placeholder in the story map. */
+        PLACED,
+        /** A story card in the story map was moved to another placeholder. */
+        MOVED,
+        /** A story card was removed from the story map. */
+        REMOVED,
+        /** The user's text for a story card was edited. */
+        TEXT
+    }
+
+    private final Kind kind;
+    private final int function;
+    private final int slot;
+    private final String text;
+
+    private StoryChange(Kind kind, int function, int slot, String text) {
+        this.kind = kind;
+        this.function = function;
+        this.slot = slot;
+        this.text = text;
+    }
+
+    static StoryChange titleChanged(String title) {
+        return new StoryChange(Kind.TITLE, StorySnapshot.EMPTY,
+                StorySnapshot.EMPTY, title);
+    }
+
+    static StoryChange placed(int function, int slot) {
+        return new StoryChange(Kind.PLACED, function, slot, null);
+    }
+
+    static StoryChange moved(int function, int slot) {
+        return new StoryChange(Kind.MOVED, function, slot, null);
+    }
+
+    static StoryChange removed(int function) {
+        return new StoryChange(Kind.REMOVED, function, StorySnapshot.EMPTY,
+                null);
+    }
+
+    static StoryChange textEdited(int function, String text) {
+        return new StoryChange(Kind.TEXT, function, StorySnapshot.EMPTY, text);
+    }
+
+    Kind getKind() { return kind; }
+
+    /**
+     * The number of the function whose story card changed, or
+     * StorySnapshot.EMPTY for title changes.
+     */
+    int getFunction() { return function; }
+
+    /**
+     * The index of the placeholder that a story card was placed or moved
+     * onto, or StorySnapshot.EMPTY for other kinds of change.
+     */
+    int getSlot() { return slot; }
+
+    /**
+     * The new title or the new user text, or null for other kinds of change.
+     */
+    String getText() { return text; }
+
+    @Override
+    public String toString() {
+        return "StoryChange: " + kind + ", function " + function + ", slot "
+                + slot;
+    }
+}
@@ -26,6 +26,9 @@ import javax.swing.*;
 import javax.swing.text.DefaultEditorKit;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import storymaps.ui.Fonts;
 import java.util.logging.Logger;
 
@@ -59,6 +62,10 @@ class StoryEditor implements Receiver {
     private CardLayout editorsLayout = new CardLayout();    
     private JPanel editorsPanel = new JPanel(editorsLayout);
 
+    // The story cards to update the FunctionEditors to when the pending
+    // update runs, or null if there's no update pending (see update).
+    private List<StoryCard> pendingCards = null;
+
     // The title of the story. TODO: put this in topToolBar.
     private AutoSelectingTextField title = new AutoSelectingTextField("Enter your story's title here.");
     
@@ -93,7 +100,7 @@ class StoryEditor implements Receiver {
         makeBottomToolBar();
         collapsiblePanel.add(bottomToolBar,BorderLayout.SOUTH);
         
-        Messager.getMessager().accept("button clicked",this,null);
+        Messager.getMessager().accept(Message.BUTTON_CLICKED,this,null);
     }
     
     private JToolBar makeTopToolBar() {
@@ -130,7 +137,7 @@ class StoryEditor implements Receiver {
         sortButton.setToolTipText("Sort your story cards into the right order.");
         sortButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                Messager.getMessager().send("sort", null);
+                Messager.getMessager().send(Message.SORT, null);
             }
         });
         configureButton("Sort", "/data/icons/sort.png", sortButton);
@@ -290,7 +297,7 @@ class StoryEditor implements Receiver {
             collapsiblePanel.getParent().repaint();
             writeButton.setText(planText);
             writeButton.setIcon(planIcon);
-            Messager.getMessager().send("Editor uncollapsed", this);
+            Messager.getMessager().send(Message.EDITOR_UNCOLLAPSED, this);
         } else {
             collapsed = true;
             collapsiblePanel.setPreferredSize(new Dimension(frame.getWidth(),0));
@@ -299,21 +306,153 @@ class StoryEditor implements Receiver {
             collapsiblePanel.getParent().repaint();
             writeButton.setText(writeText);
             writeButton.setIcon(writeIcon);
-            Messager.getMessager().send("Editor collapsed", this);
+            Messager.getMessager().send(Message.EDITOR_COLLAPSED, this);
         }
     }
     
     /**
-     * Update the list of FunctionEditors in this StoryEditor.
+     * Update the list of FunctionEditors in this StoryEditor to the editors of
+     * the given story cards, in the given order.
+     *
+     * The update is done later on the event dispatch thread, and if update is
+     * called again before then only the last list of cards is used, so a
+     * burst of changes to the story map only updates the editors once. Only
+     * the editors that have been added, removed or moved are changed (see
+     * reconcile).
      */
-    public void update(ArrayList<StoryCard> new_cards) {
-        editorsPanel.removeAll();
-        for (StoryCard s : new_cards) {
-            FunctionEditor e = s.getEditor();
+    public void update(List<StoryCard> new_cards) {
+        synchronized (this) {
+            boolean scheduled = pendingCards != null;
+            pendingCards = new_cards;
+            if (scheduled) {
+                return;
+            }
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+
+            public void run() {
+                List<StoryCard> cards;
+                synchronized (StoryEditor.this) {
+                    cards = pendingCards;
+                    pendingCards = null;
+                }
+                reconcile(cards);
+            }
+        });
+    }
+
+    /**
+     * Make the editors panel hold the editors of the given story cards, in
+     * order, by removing, inserting and moving only the editors that need it.
+     * The editors that are moved are the fewest possible: the longest run of
+     * editors that are already in the right order (not necessarily next to
+     * each other) stays where it is. The editor that was being shown is still
+     * shown if its card is still in the list, otherwise the one that has taken
+     * its place is.
+     */
+    private void reconcile(List<StoryCard> cards) {
+        int current = -1;
+        for (int i = 0; i < editorsPanel.getComponentCount(); i++) {
+            if (editorsPanel.getComponent(i).isVisible()) {
+                current = i;
+                break;
+            }
+        }
+        Component shown = current == -1 ? null : editorsPanel.getComponent(current);
+
+        List<Component> wanted = new ArrayList<Component>(cards.size());
+        Map<Component,Integer> wantedIndex =
+                new HashMap<Component,Integer>(cards.size() * 2);
+        for (StoryCard s : cards) {
+            Component c = s.getEditor().getComponent();
+            wantedIndex.put(c, wanted.size());
+            wanted.add(c);
+        }
+        boolean changed = false;
+
+        // Remove the editors of cards that have left the story map.
+        for (int i = editorsPanel.getComponentCount() - 1; i >= 0; i--) {
+            if (!wantedIndex.containsKey(editorsPanel.getComponent(i))) {
+                editorsPanel.remove(i);
+                changed = true;
+            }
+        }
+        // Take out the editors that are out of order, leaving the longest
+        // in-order run where it is. Moving one card from the front of the
+        // story map to the back moves just its editor, instead of every other
+        // editor moving up one place.
+        int[] order = new int[editorsPanel.getComponentCount()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = wantedIndex.get(editorsPanel.getComponent(i));
+        }
+        boolean[] inOrder = longestIncreasingSubsequence(order);
+        for (int i = order.length - 1; i >= 0; i--) {
+            if (!inOrder[i]) {
+                editorsPanel.remove(i);
+                changed = true;
+            }
+        }
+        // Add the editors of new cards and put the moved ones back in place.
+        for (int i = 0; i < wanted.size(); i++) {
+            Component c = wanted.get(i);
+            if (i < editorsPanel.getComponentCount()
+                    && editorsPanel.getComponent(i) == c) {
+                continue;
+            }
             // FIXME: this might cause a problem if we can have two story cards
             // with the same name.
-            editorsPanel.add(e.getComponent(),e.getFunction().getName());
+            editorsPanel.add(c, cards.get(i).getEditor().getFunction().getName(), i);
+            changed = true;
+        }
+        if (!changed) {
+            return;
+        }
+
+        int show = shown == null ? -1 : wanted.indexOf(shown);
+        if (show == -1 && !wanted.isEmpty()) {
+            show = Math.max(Math.min(current, wanted.size() - 1), 0);
+        }
+        if (show != -1) {
+            editorsLayout.show(editorsPanel,
+                    cards.get(show).getEditor().getFunction().getName());
+        }
+        editorsPanel.revalidate();
+        editorsPanel.repaint();
+    }
+
+    /**
+     * Return which elements of a belong to a longest strictly increasing
+     * subsequence of it, found by patience sorting in O(n log n) time.
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] a) {
+        // tails[k] is the index of the smallest element that ends an
+        // increasing subsequence of length k + 1 found so far, and
+        // previous[i] the index of the element before a[i] in its subsequence.
+        int[] tails = new int[a.length];
+        int[] previous = new int[a.length];
+        int length = 0;
+        for (int i = 0; i < a.length; i++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (a[tails[mid]] < a[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+        boolean[] in = new boolean[a.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i != -1; i = previous[i]) {
+            in[i] = true;
         }
+        return in;
     }
         
     /**
@@ -336,8 +475,8 @@ class StoryEditor implements Receiver {
         this.title.setText(title);
     }
 
-    public void receive(String name, Object receiver_arg, Object sender_arg) {
-        if (name.equals("button clicked")) {
+    public void receive(Message message, Object receiver_arg, Object sender_arg) {
+        if (message == Message.BUTTON_CLICKED) {
             if ( ((String)sender_arg).equals("Write Story") ) {
                 collapse();
             }
@@ -0,0 +1,154 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ * The contents of a .storymap file: a StorySnapshot of the story plus the
+ * amount of time the story and the story editor have been open for.
+ *
+ * Story files are written in a compact, versioned binary format (see
+ * StoryFileWriter for the layout). Functions are stored by number only, so a
+ * story file doesn't repeat the names, descriptions and instructions that are
+ * already in functions.json.
+ *
+ * Older versions of StoryMaps saved stories as serialized Memento objects.
+ * isStoryFile can be used to tell the two apart, old files can still be
+ * opened via Application.restoreFromMemento and are written in the new format
+ * the next time they're saved.
+ *
+ * @author seanh
+ */
+final class StoryFile {
+
+    /**
+     * The first four bytes of every story file, "STMP".
+     */
+    static final int MAGIC = 0x53544d50;
+
+    /**
+     * The version of the format written by this version of StoryMaps.
+     * StoryFileReader refuses to read files with a newer version.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Flag bit set if the body of the file is deflate-compressed.
+     */
+    static final int FLAG_DEFLATE = 1;
+
+    private final StorySnapshot snapshot;
+    private final long storyOpenMillis;
+    private final long editorOpenMillis;
+
+    StoryFile(StorySnapshot snapshot, long storyOpenMillis,
+            long editorOpenMillis) {
+        if (snapshot == null) {
+            throw new NullPointerException("Null snapshot.");
+        }
+        this.snapshot = snapshot;
+        this.storyOpenMillis = storyOpenMillis;
+        this.editorOpenMillis = editorOpenMillis;
+    }
+
+    StorySnapshot getSnapshot() { return snapshot; }
+
+    long getStoryOpenMillis() { return storyOpenMillis; }
+
+    long getEditorOpenMillis() { return editorOpenMillis; }
+
+    /**
+     * Return true if the file at the given path starts with the story file
+     * magic number, false if it doesn't (e.g. it's an old serialized-memento
+     * story file).
+     */
+    static boolean isStoryFile(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(path));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            // Too short to be a story file.
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a story file from a canonical and absolute system path.
+     */
+    static StoryFile read(String path) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(path));
+        try {
+            StoryFileReader reader = new StoryFileReader(in);
+            try {
+                return reader.read();
+            } finally {
+                reader.end();
+            }
+        } catch (IOException e) {
+            String detail = "IOException when reading story file from path: "+path;
+            IOException ee = new IOException(detail,e);
+            Logger.getLogger(StoryFile.class.getName()).throwing("StoryFile", "read", ee);
+            throw ee;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write this story file to a canonical and absolute system path.
+     *
+     * @param compress Whether to deflate-compress the body of the file.
+     */
+    void write(String path, boolean compress) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(path));
+        try {
+            StoryFileWriter writer = new StoryFileWriter(out, compress);
+            try {
+                writer.write(this);
+                writer.finish();
+            } finally {
+                writer.end();
+            }
+        } catch (IOException e) {
+            String detail = "IOException when writing story file to path: "+path;
+            IOException ee = new IOException(detail,e);
+            Logger.getLogger(StoryFile.class.getName()).throwing("StoryFile", "write", ee);
+            throw ee;
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StoryFile: " + snapshot;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a StoryFile from an InputStream in the binary story file format (see
+ * StoryFileWriter for the layout).
+ *
+ * @author seanh
+ */
+final class StoryFileReader {
+
+    /**
+     * Refuse to read strings longer than this, so that a corrupt file can't
+     * make us allocate a huge array.
+     */
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Likewise, refuse to read more placeholders or texts than this.
+     */
+    private static final int MAX_COUNT = 1024 * 1024;
+
+    private final Inflater zlib;
+    private final DataInputStream body;
+
+    /**
+     * Construct a reader that reads from in. The header is read and checked
+     * immediately.
+     *
+     * @throws java.io.IOException if in is not a story file or is a story
+     * file of a newer, unsupported version.
+     */
+    StoryFileReader(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != StoryFile.MAGIC) {
+            throw new IOException("Not a story file.");
+        }
+        int version = header.readUnsignedByte();
+        if (version > StoryFile.VERSION) {
+            throw new IOException("Unsupported story file version: " + version);
+        }
+        int flags = header.readUnsignedByte();
+        if ((flags & StoryFile.FLAG_DEFLATE) != 0) {
+            zlib = new Inflater();
+            body = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(in, zlib)));
+        } else {
+            zlib = null;
+            body = header;
+        }
+    }
+
+    /**
+     * Read the body of the story file.
+     */
+    StoryFile read() throws IOException {
+        long storyOpenMillis = body.readLong();
+        long editorOpenMillis = body.readLong();
+        String title = readString();
+        int[] slots = new int[readCount()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = readVarInt() - 1;
+        }
+        int count = readCount();
+        Map<Integer,String> texts = new TreeMap<Integer,String>();
+        for (int i = 0; i < count; i++) {
+            int number = readVarInt();
+            texts.put(number, readString());
+        }
+        StorySnapshot snapshot = new StorySnapshot(title, slots, texts);
+        return new StoryFile(snapshot, storyOpenMillis, editorOpenMillis);
+    }
+
+    /**
+     * Free the native memory used for decompressing (which otherwise isn't
+     * freed until the reader is garbage collected). Call this, in a finally
+     * block, once finished with the reader whether or not reading succeeded.
+     */
+    void end() {
+        if (zlib != null) {
+            zlib.end();
+        }
+    }
+
+    private String readString() throws IOException {
+        int length = readVarInt();
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("String too long in story file: " + length);
+        }
+        byte[] bytes = new byte[length];
+        body.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private int readCount() throws IOException {
+        int count = readVarInt();
+        if (count > MAX_COUNT) {
+            throw new IOException("Count too large in story file: " + count);
+        }
+        return count;
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = body.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in story file.");
+    }
+}
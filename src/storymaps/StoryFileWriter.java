@@ -0,0 +1,149 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a StoryFile to an OutputStream in the binary story file format.
+ *
+ * The format (version 1) is:
+ *
+ *   int      magic number, "STMP"
+ *   byte     version
+ *   byte     flags (bit 0 set if the body is deflate-compressed)
+ *   body:
+ *     long     story open duration, milliseconds
+ *     long     editor open duration, milliseconds
+ *     string   title
+ *     varint   number of placeholders, then for each placeholder a varint
+ *              that is 0 for an empty placeholder or the function number + 1
+ *     varint   number of texts, then for each text a varint function number
+ *              followed by a string
+ *
+ * Strings are a varint length in bytes followed by that many bytes of UTF-8.
+ * Varints are unsigned LEB128: seven bits per byte, low bits first, with the
+ * top bit set on every byte except the last.
+ *
+ * The body is written straight through to the underlying stream (via a
+ * deflater if compressing), so nothing is buffered in memory beyond a small
+ * write buffer.
+ *
+ * @author seanh
+ */
+final class StoryFileWriter {
+
+    private final OutputStream out;
+    private final Deflater zlib;
+    private final DeflaterOutputStream deflater;
+    private final DataOutputStream body;
+
+    /**
+     * Construct a writer that writes to out. The header is written
+     * immediately.
+     *
+     * @param compress Whether to deflate-compress the body.
+     */
+    StoryFileWriter(OutputStream out, boolean compress) throws IOException {
+        this.out = out;
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(StoryFile.MAGIC);
+        header.writeByte(StoryFile.VERSION);
+        header.writeByte(compress ? StoryFile.FLAG_DEFLATE : 0);
+        if (compress) {
+            zlib = new Deflater();
+            deflater = new DeflaterOutputStream(out, zlib);
+            body = new DataOutputStream(new BufferedOutputStream(deflater));
+        } else {
+            zlib = null;
+            deflater = null;
+            body = new DataOutputStream(new BufferedOutputStream(out));
+        }
+    }
+
+    /**
+     * Write the body of a story file.
+     */
+    void write(StoryFile f) throws IOException {
+        body.writeLong(f.getStoryOpenMillis());
+        body.writeLong(f.getEditorOpenMillis());
+        StorySnapshot s = f.getSnapshot();
+        writeString(s.getTitle());
+        writeVarInt(s.getSlotCount());
+        for (int i = 0; i < s.getSlotCount(); i++) {
+            int number = s.getSlot(i);
+            writeVarInt(number == StorySnapshot.EMPTY ? 0 : number + 1);
+        }
+        SortedMap<Integer,String> texts = s.getTexts();
+        writeVarInt(texts.size());
+        for (Map.Entry<Integer,String> e : texts.entrySet()) {
+            writeVarInt(e.getKey());
+            writeString(e.getValue());
+        }
+    }
+
+    /**
+     * Finish writing: flush everything (and finish the deflate block, if
+     * compressing) to the underlying stream. The underlying stream is not
+     * closed.
+     */
+    void finish() throws IOException {
+        body.flush();
+        if (deflater != null) {
+            deflater.finish();
+        }
+        out.flush();
+    }
+
+    /**
+     * Free the native memory used for compressing (which otherwise isn't
+     * freed until the writer is garbage collected). Call this, in a finally
+     * block, once finished with the writer whether or not writing succeeded.
+     */
+    void end() {
+        if (zlib != null) {
+            zlib.end();
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarInt(bytes.length);
+        body.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        if (value < 0) {
+            throw new IOException("Can't write negative varint: " + value);
+        }
+        while ((value & ~0x7f) != 0) {
+            body.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        body.writeByte(value);
+    }
+}
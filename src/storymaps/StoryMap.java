@@ -23,9 +23,12 @@ package storymaps;
 import DragAndDrop.*;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.nodes.PImage;
+import edu.umd.cs.piccolo.util.PBounds;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.awt.Color;
@@ -36,6 +39,12 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
         
     private ArrayList<Placeholder> placeholders = 
             new ArrayList<Placeholder>();    
+
+    /**
+     * Index of the placeholders' positions, which of them are free and the
+     * story cards on them.
+     */
+    private final PlaceholderIndex index = new PlaceholderIndex(placeholders);
     
     private StoryEditor editor;
 
@@ -43,23 +52,27 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     private static final double top_margin = 23;
     private static final double spacing = 9;
 
+    private static final int INITIAL_PLACEHOLDERS = 18;
+
+    private static final long SORT_ANIMATION_MILLIS = 500;
+
+    /**
+     * The part of the grid that is on screen, grown by a card's size on each
+     * side (so it holds the positions of all the cards that are at least
+     * partly on screen), or null if everything is on screen. See setViewport.
+     */
+    private Rectangle2D viewport = null;
+
     public StoryMap(StoryEditor editor, double width, double height,
             double xoffset, double yoffset, Color color) {
         super(width, height, xoffset, yoffset, color, left_margin, top_margin, spacing);
         this.editor = editor;
 
-        // Warning! Hardcoded the number of placeholders needed to completely
-        // fill the area of the story map given the current relative proportions
-        // of story card and story map.
-        //
-        // Add n placeholders to the grid node. Keep references to all these
-        // placeholders in `placeholders`.
-        int n = 18;
-        for (int i = 0; i < n; i++) {
-            Placeholder p = new Placeholder();
-            addToGrid(p.getNode());
-            placeholders.add(p);
-        }
+        // Start with enough placeholders to fill the area of the story map
+        // given the current relative proportions of story card and story map.
+        // The story map grows by a row of placeholders whenever it fills up
+        // (see ensureFreePlaceholder).
+        addNewPlaceholders(INITIAL_PLACEHOLDERS);
 
         init();
     }
@@ -69,16 +82,14 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
             Color color) {
         super(width, height, xoffset, yoffset, color, left_margin, top_margin, spacing);
         this.editor = editor;
-        for (Placeholder p : placeholders) {
-            addToGrid(p.getNode());
-            this.placeholders.add(p);
-        }
+        addPlaceholders(placeholders);
         for (Placeholder p : placeholders) {
             StoryCard sc = p.getStoryCard();
             if (sc != null) {
                 addStoryCard(sc,p);
             }
         }
+        ensureFreePlaceholder();
         init();
     }
     
@@ -87,7 +98,7 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
      * common initialisation stuff.
      */
     private void init() {
-        Messager.getMessager().accept("StoryCard single-clicked", this, null);
+        Messager.getMessager().accept(Message.STORY_CARD_SINGLE_CLICKED, this, null);
         PImage image;
         try {
             image = new PImage(Util.readImageFromClassPath("/data/icons/sort.png"));
@@ -101,21 +112,144 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
         //sort.setScale(5);
         //this.background.addChild(sort);
         //sort.setOffset(background.getWidth(),background.getHeight());
-        Messager.getMessager().accept("button clicked", this, null);                
+        Messager.getMessager().accept(Message.BUTTON_CLICKED, this, null);                
     }
     
-    public StoryEditor getEditor() {
-        return editor;
+    /**
+     * Add some placeholders to the end of the grid, laying out the grid once.
+     */
+    private void addPlaceholders(List<Placeholder> ps) {
+        List<PNode> nodes = new ArrayList<PNode>(ps.size());
+        for (Placeholder p : ps) {
+            p.setIndex(index, placeholders.size());
+            placeholders.add(p);
+            nodes.add(p.getNode());
+        }
+        addAllToGrid(nodes);
+        // The grid has been laid out again.
+        index.invalidate();
+    }
+
+    /**
+     * Add n new, empty placeholders to the end of the grid.
+     */
+    private void addNewPlaceholders(int n) {
+        List<Placeholder> ps = new ArrayList<Placeholder>(n);
+        for (int i = 0; i < n; i++) {
+            ps.add(new Placeholder());
+        }
+        addPlaceholders(ps);
+    }
+
+    /**
+     * If every placeholder is taken, add another row of them (making the
+     * story map taller to fit), so that there is always somewhere to drop
+     * another card.
+     */
+    private void ensureFreePlaceholder() {
+        if (index.hasFree()) {
+            return;
+        }
+        addNewPlaceholders(Math.max(rowLength(), 1));
+        growToFitGrid();
+    }
+
+    /**
+     * Return the number of placeholders in the first row of the grid.
+     */
+    private int rowLength() {
+        if (placeholders.isEmpty()) {
+            return 0;
+        }
+        double y = placeholders.get(0).getNode().getYOffset();
+        int n = 1;
+        while (n < placeholders.size()
+                && placeholders.get(n).getNode().getYOffset() == y) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Tell the story map which part of it is on screen, so that it only keeps
+     * the story cards that can be seen in the scene graph. The others are
+     * taken out of the scene graph (they're still in the story map) until
+     * they come into view, so that story maps with thousands of cards can be
+     * drawn and scrolled quickly.
+     *
+     * @param globalBounds The bounds of the camera's view, in global
+     * coordinates, or null to put every card in the scene graph.
+     */
+    void setViewport(Rectangle2D globalBounds) {
+        if (globalBounds == null) {
+            viewport = null;
+        } else {
+            Point2D min = globalToGrid(new Point2D.Double(
+                    globalBounds.getMinX(), globalBounds.getMinY()));
+            Point2D max = globalToGrid(new Point2D.Double(
+                    globalBounds.getMaxX(), globalBounds.getMaxY()));
+            PBounds card = StoryCardBase.getCardBounds();
+            viewport = new Rectangle2D.Double(min.getX() - card.getWidth(),
+                    min.getY() - card.getHeight(),
+                    max.getX() - min.getX() + 2 * card.getWidth(),
+                    max.getY() - min.getY() + 2 * card.getHeight());
+        }
+        materialize();
+    }
+
+    /**
+     * Return true if the card on the given placeholder would be on screen.
+     */
+    private boolean inViewport(Placeholder p) {
+        return viewport == null || viewport.contains(p.getNode().getOffset());
     }
 
     /**
-     * Return the distance between two points.
+     * Take the story cards that have gone out of view out of the scene graph
+     * and put the ones that have come into view back in.
      */
-    private double findDistance(double x1, double y1, double x2, double y2) {
-        // Go Pythagoras!
-        double a = (x2-x1)*(x2-x1);
-        double b = (y2-y1)*(y2-y1);
-        return Math.sqrt(a+b);
+    private void materialize() {
+        BitSet visible = new BitSet();
+        if (viewport == null) {
+            visible.set(0, placeholders.size());
+        } else {
+            index.findSlotsIn(viewport.getMinX(), viewport.getMinY(),
+                    viewport.getMaxX(), viewport.getMaxY(), visible);
+        }
+        PNode overlay = getOverlay();
+        for (int i = overlay.getChildrenCount() - 1; i >= 0; i--) {
+            Placeholder p = (Placeholder)
+                    overlay.getChild(i).getAttribute("Placeholder");
+            if (p != null && p.getIndex() == index && !visible.get(p.getSlot())) {
+                overlay.removeChild(i);
+            }
+        }
+        for (int slot = visible.nextSetBit(0); slot >= 0;
+                slot = visible.nextSetBit(slot + 1)) {
+            StoryCard s = placeholders.get(slot).getStoryCard();
+            // A card with another parent is being dragged, leave it alone.
+            if (s != null && s.getNode().getParent() == null) {
+                addToOverlay(s.getNode());
+            }
+        }
+    }
+
+    /**
+     * Position story card s over placeholder p, putting it in the scene graph
+     * if it's on screen.
+     */
+    private void show(StoryCard s, Placeholder p) {
+        PNode node = s.getNode();
+        node.setOffset(p.getNode().getOffset());
+        if (inViewport(p)) {
+            addToOverlay(node);
+        } else if (node.getParent() != null) {
+            node.removeFromParent();
+        }
+    }
+
+    public StoryEditor getEditor() {
+        return editor;
     }
     
     /**
@@ -129,39 +263,15 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
      * Return the nearest free PlaceHolder in placeholders to the given
      * StoryCard, or null if there are no free placeholders.
      */
-    private Placeholder findNearest(StoryCard s) {
-        ArrayList<Placeholder> free_placeholders = new ArrayList<Placeholder>();
-        for (Placeholder p: placeholders) {
-            if (!p.taken()) {
-                free_placeholders.add(p);
-            }
-        }
-        if (free_placeholders.size() == 0) {
+    Placeholder findNearest(StoryCard s) {
+        if (!index.hasFree()) {
             // There's no free placeholders.
             return null;
         }
-        
-        // Translate the storycard's x and y offsets to global coords.        
-        Point2D p2d = globalPos(s.getNode());
-        double x1 = p2d.getX();
-        double y1 = p2d.getY();
-        
-        double nearest_distance = -1;
-        Placeholder nearest_placeholder = null;        
-        for (Placeholder p : free_placeholders) {
-            p2d = globalPos(p.getNode());
-            double x2 = p2d.getX();
-            double y2 = p2d.getY();            
-            double distance = findDistance(x1,y1,x2,y2);
-            if (nearest_distance == -1 || distance < nearest_distance) {
-                nearest_distance = distance;
-                nearest_placeholder = p;
-            }
-        }
-        
-        assert nearest_placeholder != null : "findNearest did not find a placeholder, even though there are free placeholders? This shouldn't happen.";
-        
-        return nearest_placeholder;
+        // Translate the storycard's offset to the coordinates of the grid,
+        // which is where the placeholders' offsets are.
+        Point2D p2d = globalToGrid(globalPos(s.getNode()));
+        return placeholders.get(index.findNearestFree(p2d.getX(), p2d.getY()));
     }
     
     /**
@@ -169,12 +279,7 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
      * null if no such story card exists in storycards.
      */
     private StoryCard findStoryCard(StoryCard s) {
-        for (StoryCard c : getStoryCards()) {
-            if (s.getFunction().compare(c.getFunction())) {
-                return c;
-            }
-        }
-        return null;
+        return index.getCard(s.getFunction().getNumber());
     }
 
     /** 
@@ -182,8 +287,10 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
      * StoryCard s, or null if no such StoryCard exists in storycards.
      */
     private StoryCard findStoryCardInstance(StoryCard s) {
-        for (StoryCard c : getStoryCards()) {
-            if (s == c) { return c; }
+        // Our own story cards are the ones sitting on our placeholders.
+        Placeholder p = (Placeholder) s.getNode().getAttribute("Placeholder");
+        if (p != null && p.getIndex() == index && p.getStoryCard() == s) {
+            return s;
         }
         return null;
     }
@@ -201,9 +308,8 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
         }
         Placeholder nearest = findNearest(s);        
         s.unhighlight(); // Scale the SotyrCard down, to position it properly.
-        addToOverlay(s.getNode());
-        s.getNode().setOffset(nearest.getNode().getOffset());
         nearest.setStoryCard(s);
+        show(s, nearest);
     }
     
     /**
@@ -213,6 +319,7 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     private void addStoryCard(StoryCard s) {
         s.attach(this);
         positionStoryCard(s);
+        ensureFreePlaceholder();
     }
     
     /**
@@ -226,9 +333,8 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
             previous.clearStoryCard();
         }
         s.unhighlight(); // Scale the StoryCard down, to position it properly.
-        addToOverlay(s.getNode());
-        s.getNode().setOffset(p.getNode().getOffset());
         p.setStoryCard(s);                    
+        show(s, p);
     }
     
     /**
@@ -248,7 +354,7 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     @Override
     public boolean dropped_onto(DropEvent de) {
 
-        if (placeholders.size() <= getStoryCards().size()) {
+        if (!index.hasFree()) {
             // We have no space, reject the drop.
             return false;
         }
@@ -274,11 +380,9 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
         }
                 
         // Accept the new story card...
-        // Subscribe to the Draggable of this story card.
-        // FIXME: this method gets called when a storycard is dropped onto this
-        // story map, then by the time this method has finished executing this
-        // story map has subscribed to the card's draggable also, and the notify
-        // method below gets called for the same drop event!
+        // Subscribe to the Draggable of this story card. (Subscriptions made
+        // during a drop aren't notified of that drop, so the notify method
+        // below won't be called for this one.)
         addStoryCard(s);
         editor.update(getStoryCards());
         return true;
@@ -287,10 +391,10 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     /**
      * Called when a draggable that this story map is subscribed to is dropped
      * onto something. Get the StoryCard that the Draggable instance belongs to
-     * and remove it from storycards, then return false to unsubscribe from the
-     * Draggable instance.
+     * and remove it from storycards, then return DETACH to unsubscribe from
+     * the Draggable instance.
      */
-    public boolean notify(DropEvent de) {
+    public Disposition notify(DropEvent de) {
         Draggable draggee = de.getDraggee();
         Droppable droppee = de.getDroppee();        
         
@@ -298,13 +402,13 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
         // story card was dragged from this story map and dropped onto this
         // story map again, so ignore the event.
         if (droppee == this.background.getAttribute("Droppable")) {            
-            return true;
+            return Disposition.KEEP;
         }
         // Otherwise, a story card was dragged from this story map and dropped
         // onto something else, so remove the story card from this story map. 
         StoryCard s = (StoryCard) draggee.getNode().getAttribute("StoryCard");
         removeStoryCard(s);
-        return false;
+        return Disposition.DETACH;
     }
     
     private void removeStoryCard(StoryCard s) {
@@ -314,16 +418,14 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     }
         
     /**
-     * Return a list of all the StoryCards in this StoryMap.
+     * Return a read-only list of all the StoryCards in this StoryMap, in the
+     * order of their placeholders. The list is kept by the story map's index
+     * and only rebuilt after cards have been added or removed, so calling
+     * this method repeatedly is cheap. The returned list doesn't change if
+     * cards are added or removed later.
      */
-    public ArrayList<StoryCard> getStoryCards() {
-        ArrayList<StoryCard> storycards = new ArrayList<StoryCard>();
-        for (Placeholder p : placeholders) {
-            if (p.taken()) {
-                storycards.add(p.getStoryCard());
-            }
-        }
-        return storycards;
+    public List<StoryCard> getStoryCards() {
+        return index.getCards();
     }
     
     public ArrayList<Placeholder> getPlaceholders() {
@@ -343,13 +445,13 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
      * Receive messages (from Messager) that we have subscribed to using
      * Messager.accept or Messager.acceptOnce.
      */
-    public void receive(String name, Object receiver_arg, Object sender_arg) {
-        if (name.equals("StoryCard single-clicked")) {            
+    public void receive(Message message, Object receiver_arg, Object sender_arg) {
+        if (message == Message.STORY_CARD_SINGLE_CLICKED) {            
             StoryCard s = (StoryCard) sender_arg;
-            if (getStoryCards().contains(s)) {
+            if (findStoryCardInstance(s) != null) {
                 focus(s);
             }
-        } else if (name.equals("button clicked")) {
+        } else if (message == Message.BUTTON_CLICKED) {
             if (((String)sender_arg).equals("Sort")) {
                 sort();
             }
@@ -357,27 +459,44 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     }
 
     /**
-     * Sort the story cards in this story map.
+     * Sort the story cards in this story map, moving them onto the first
+     * placeholders in function order. Cards that are on screen slide to their
+     * new places, all at once.
      */
     void sort() {
-        // Get a list of all story cards currently in this story map.
-        ArrayList<StoryCard> storycards = getStoryCards();
-        
-        // Remove all story cards from the story map.
+        List<StoryCard> storycards = new ArrayList<StoryCard>(getStoryCards());
+        Collections.sort(storycards);
+
+        // Take every card off its placeholder before putting any back, so
+        // that no placeholder ever has two cards.
         for (StoryCard c : storycards) {
-            removeStoryCard(c);            
+            ((Placeholder) c.getNode().getAttribute("Placeholder")).clearStoryCard();
         }
-        
-        // Sort the story cards.
-        Collections.sort(storycards);
-                        
-        // Add all story cards back to the story map in sorted order.
         for (int i = 0; i < storycards.size(); i++) {
-            addStoryCard(storycards.get(i),placeholders.get(i));     
+            StoryCard c = storycards.get(i);
+            Placeholder p = placeholders.get(i);
+            p.setStoryCard(c);
+            move(c, p, SORT_ANIMATION_MILLIS);
         }
                 
         editor.update(getStoryCards());
     }
+
+    /**
+     * Move story card s over placeholder p, animating it there if it's on
+     * screen before and after.
+     */
+    private void move(StoryCard s, Placeholder p, long duration) {
+        PNode node = s.getNode();
+        if (node.getParent() == getOverlay() && node.getRoot() != null
+                && inViewport(p)) {
+            Point2D to = p.getNode().getOffset();
+            node.animateToPositionScaleRotation(to.getX(), to.getY(),
+                    node.getScale(), node.getRotation(), duration);
+        } else {
+            show(s, p);
+        }
+    }
     
     // Implement Originator
     // --------------------
@@ -442,6 +561,16 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
     
     public static StoryMap newInstanceFromMemento(Memento m)
             throws MementoException {
+        return newInstanceFromMemento(m,
+                Application.getInstance().getStoryEditor());
+    }
+
+    /**
+     * Create a new StoryMap from a memento, using the given StoryEditor
+     * instead of the application's.
+     */
+    static StoryMap newInstanceFromMemento(Memento m, StoryEditor editor)
+            throws MementoException {
         if (m == null) {
             String detail = "Null memento object.";
             MementoException e = new MementoException(detail);
@@ -455,7 +584,6 @@ class StoryMap extends StoryBase implements DragDropObserver, Receiver,
             throw e;
         }
         StoryMapMemento smm = (StoryMapMemento) m;
-        StoryEditor editor = Application.getInstance().getStoryEditor();
         String title = smm.getTitle();
         List<Memento> placeholderMementos = smm.getPlaceholderMementos();
         List<Placeholder> placeholders = new ArrayList<Placeholder>();
@@ -0,0 +1,268 @@
+/*
+    Copyright: (c) 2006-2012 Sean Hammond <seanhammond@lavabit.com>
+
+    This file is part of Storymaps.
+
+    Storymaps is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Storymaps is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Storymaps.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package storymaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable record of the content of a story: its title, which function's
+ * story card (if any) is on each placeholder of the story map, and the user's
+ * text for each function.
+ *
+ * Unlike the Memento classes a StorySnapshot refers to functions by number
+ * only, so it is small, cheap to compare and cheap to write out. Story cards
+ * that are not on the story map are in the card store, so the card store does
+ * not need to be recorded separately.
+ *
+ * Two snapshots can be compared with changesSince to get the list of
+ * StoryChanges between them, which is what the autosave journal records.
+ *
+ * @author seanh
+ */
+final class StorySnapshot {
+
+    /**
+     * The value used for a placeholder that has no story card on it.
+     */
+    static final int EMPTY = -1;
+
+    private final String title;
+
+    /**
+     * The function number of the story card on each placeholder, or EMPTY.
+     */
+    private final int[] slots;
+
+    /**
+     * Maps function numbers to the user's text for that function. Functions
+     * with no text are left out.
+     */
+    private final SortedMap<Integer,String> texts;
+
+    StorySnapshot(String title, int[] slots, Map<Integer,String> texts) {
+        if (title == null) {
+            throw new NullPointerException("Null title.");
+        }
+        this.title = title;
+        // Defensively copy the mutable arguments.
+        this.slots = slots.clone();
+        this.texts = new TreeMap<Integer,String>();
+        for (Map.Entry<Integer,String> e : texts.entrySet()) {
+            if (e.getValue() != null && e.getValue().length() > 0) {
+                this.texts.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Capture the content of a story.
+     *
+     * @param title The story's title.
+     * @param placeholders The story map's placeholders, in order.
+     * @param storeCards The story cards that are in the card store.
+     */
+    static StorySnapshot capture(String title, List<Placeholder> placeholders,
+            List<StoryCard> storeCards) {
+        int[] slots = new int[placeholders.size()];
+        Map<Integer,String> texts = new TreeMap<Integer,String>();
+        for (int i = 0; i < slots.length; i++) {
+            StoryCard s = placeholders.get(i).getStoryCard();
+            if (s == null) {
+                slots[i] = EMPTY;
+            } else {
+                int number = s.getFunction().getNumber();
+                slots[i] = number;
+                texts.put(number, s.getEditor().getText());
+            }
+        }
+        for (StoryCard s : storeCards) {
+            texts.put(s.getFunction().getNumber(), s.getEditor().getText());
+        }
+        return new StorySnapshot(title, slots, texts);
+    }
+
+    String getTitle() { return title; }
+
+    int getSlotCount() { return slots.length; }
+
+    /**
+     * Return the number of the function on the given placeholder, or EMPTY.
+     */
+    int getSlot(int index) { return slots[index]; }
+
+    /**
+     * Return the user's text for the given function (never null).
+     */
+    String getText(int function) {
+        String text = texts.get(function);
+        return text == null ? "" : text;
+    }
+
+    /**
+     * Return an unmodifiable view of the non-empty texts in this snapshot,
+     * keyed by function number.
+     */
+    SortedMap<Integer,String> getTexts() {
+        return Collections.unmodifiableSortedMap(texts);
+    }
+
+    /**
+     * Return the index of the placeholder holding the given function, or
+     * EMPTY if the function is not on the story map.
+     */
+    int findSlot(int function) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == function) {
+                return i;
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Return the list of changes that turn previous into this snapshot.
+     */
+    List<StoryChange> changesSince(StorySnapshot previous) {
+        List<StoryChange> changes = new ArrayList<StoryChange>();
+        if (!title.equals(previous.title)) {
+            changes.add(StoryChange.titleChanged(title));
+        }
+        // Cards that have left the story map.
+        for (int i = 0; i < previous.slots.length; i++) {
+            int f = previous.slots[i];
+            if (f != EMPTY && findSlot(f) == EMPTY) {
+                changes.add(StoryChange.removed(f));
+            }
+        }
+        // Cards that have been placed or moved.
+        for (int i = 0; i < slots.length; i++) {
+            int f = slots[i];
+            if (f == EMPTY) {
+                continue;
+            }
+            if (i < previous.slots.length && previous.slots[i] == f) {
+                continue;
+            }
+            if (previous.findSlot(f) == EMPTY) {
+                changes.add(StoryChange.placed(f, i));
+            } else {
+                changes.add(StoryChange.moved(f, i));
+            }
+        }
+        // Texts that have been edited (or cleared).
+        for (Map.Entry<Integer,String> e : texts.entrySet()) {
+            if (!e.getValue().equals(previous.texts.get(e.getKey()))) {
+                changes.add(StoryChange.textEdited(e.getKey(), e.getValue()));
+            }
+        }
+        for (Integer f : previous.texts.keySet()) {
+            if (!texts.containsKey(f)) {
+                changes.add(StoryChange.textEdited(f, ""));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Return a new snapshot that is the result of applying the given changes,
+     * in order, to this snapshot.
+     */
+    StorySnapshot apply(List<StoryChange> changes) {
+        String newTitle = title;
+        int[] newSlots = slots.clone();
+        Map<Integer,String> newTexts = new TreeMap<Integer,String>(texts);
+        for (StoryChange c : changes) {
+            switch (c.getKind()) {
+                case TITLE:
+                    newTitle = c.getText();
+                    break;
+                case PLACED:
+                    newSlots = ensureSlot(newSlots, c.getSlot());
+                    newSlots[c.getSlot()] = c.getFunction();
+                    break;
+                case MOVED:
+                    clear(newSlots, c.getFunction());
+                    newSlots = ensureSlot(newSlots, c.getSlot());
+                    newSlots[c.getSlot()] = c.getFunction();
+                    break;
+                case REMOVED:
+                    clear(newSlots, c.getFunction());
+                    break;
+                case TEXT:
+                    newTexts.put(c.getFunction(), c.getText());
+                    break;
+            }
+        }
+        return new StorySnapshot(newTitle, newSlots, newTexts);
+    }
+
+    /**
+     * Return slots, or a copy of it lengthened with empty slots if it doesn't
+     * have the given slot (the story map has grown since slots was taken).
+     */
+    private static int[] ensureSlot(int[] slots, int slot) {
+        if (slot < slots.length) {
+            return slots;
+        }
+        int[] longer = Arrays.copyOf(slots, slot + 1);
+        Arrays.fill(longer, slots.length, longer.length, EMPTY);
+        return longer;
+    }
+
+    private static void clear(int[] slots, int function) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == function) {
+                slots[i] = EMPTY;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof StorySnapshot)) {
+            return false;
+        }
+        StorySnapshot s = (StorySnapshot) obj;
+        return title.equals(s.title) && Arrays.equals(slots, s.slots)
+                && texts.equals(s.texts);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = title.hashCode();
+        h = 31 * h + Arrays.hashCode(slots);
+        h = 31 * h + texts.hashCode();
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "StorySnapshot: " + title + ", " + Arrays.toString(slots);
+    }
+}
@@ -20,9 +20,12 @@
 */
 package storymaps;
 
+import freemarker.cache.MruCacheStorage;
 import freemarker.template.*;
 import java.io.*;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * If FreeMarker throws its TemplateException then we wrap it in one of these
@@ -38,39 +41,137 @@ class TemplateHandlerException extends Exception {
 
 /**
  * Class that handles templating via FreeMarker.
- * 
+ *
+ * Parsing a template is much more expensive than rendering it, so the
+ * application uses one shared TemplateHandler (see getInstance) whose
+ * FreeMarker configuration caches compiled templates for the life of the
+ * application. The templates are loaded from the classpath and never change
+ * while the application is running, so they are never checked for updates.
+ *
+ * A TemplateHandler can be used from any thread once it has been
+ * constructed: FreeMarker's Configuration and Template objects are
+ * thread-safe as long as their settings aren't changed after construction.
+ *
  * @author seanh
  */
 final class TemplateHandler {
 
+    /**
+     * The default number of compiled templates that are always kept in the
+     * cache. Can be overridden with the storymaps.templates.strongCacheSize
+     * system property.
+     */
+    static final int DEFAULT_STRONG_CACHE_SIZE =
+            Integer.getInteger("storymaps.templates.strongCacheSize", 20);
+
+    /**
+     * The default number of further compiled templates that are kept in the
+     * cache for as long as there is memory for them. Can be overridden with
+     * the storymaps.templates.softCacheSize system property.
+     */
+    static final int DEFAULT_SOFT_CACHE_SIZE =
+            Integer.getInteger("storymaps.templates.softCacheSize", 250);
+
+    /**
+     * The templates that the application renders, which are compiled by
+     * warmUp.
+     */
+    private static final String[] TEMPLATES =
+            {"story.ftl", "storycard.ftl", "functions.ftl"};
+
+    /**
+     * The single shared instance, using the default templates directory.
+     */
+    private static final TemplateHandler INSTANCE = new TemplateHandler();
+
     /**
      * The FreeMarker configuration instance.
      */
     private final Configuration cfg = new Configuration();
 
+    /**
+     * Return the shared TemplateHandler instance, which uses the default
+     * templates directory.
+     */
+    static TemplateHandler getInstance() {
+        return INSTANCE;
+    }
+
     /**
      * Construct a new TemplateHandler instance using the default templates
      * directory.
      *
-     * @throws java.io.IOException
+     * Most code should use the shared instance returned by getInstance
+     * instead, so that templates are only compiled once.
      */
     TemplateHandler() {
         this("/data/templates");
     }
 
     TemplateHandler(String templateDir) {
+        this(templateDir, DEFAULT_STRONG_CACHE_SIZE, DEFAULT_SOFT_CACHE_SIZE);
+    }
+
+    /**
+     * Construct a new TemplateHandler instance.
+     *
+     * @param templateDir The classpath directory to load templates from.
+     * @param strongCacheSize The number of most recently used compiled
+     * templates that are never evicted from the cache.
+     * @param softCacheSize The number of further compiled templates that are
+     * kept in the cache until the garbage collector needs the memory.
+     */
+    TemplateHandler(String templateDir, int strongCacheSize, int softCacheSize) {
         cfg.setClassForTemplateLoading(Util.class, templateDir);
         cfg.setObjectWrapper(new DefaultObjectWrapper());
+        cfg.setCacheStorage(new MruCacheStorage(strongCacheSize, softCacheSize));
+        // Templates are loaded from the classpath, so they can't change while
+        // the application is running. Never look for updates.
+        cfg.setTemplateUpdateDelay(Integer.MAX_VALUE);
+        // There are no locale-specific templates, so don't look for them (each
+        // look is a failed classpath lookup).
+        cfg.setLocalizedLookup(false);
+    }
+
+    /**
+     * Load and compile all of the application's templates into the cache, so
+     * that the first preview or export doesn't have to. Can be called from any
+     * thread.
+     */
+    void warmUp() {
+        for (String template : TEMPLATES) {
+            try {
+                cfg.getTemplate(template);
+            } catch (IOException e) {
+                // Not fatal, the error will happen again (and be reported)
+                // when the template is actually used.
+                Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                        "IOException when warming up template " + template, e);
+            }
+        }
     }
 
-    String renderMap(Map m, String template_filename) throws IOException, TemplateHandlerException {
+    String renderMap(Map<String,Object> m, String template_filename) throws IOException, TemplateHandlerException {
+        StringWriter out = new StringWriter();
+        renderMap(m, template_filename, out);
+        return out.toString();
+    }
+
+    /**
+     * Render a template straight to a Writer, without building the whole
+     * document in memory first. The writer is flushed but not closed.
+     *
+     * @param m The data model to render the template with
+     * @param template_filename The template to render
+     * @param out The writer to write the rendered template to
+     */
+    void renderMap(Map<String,Object> m, String template_filename, Writer out) throws IOException, TemplateHandlerException {
         Template temp = null;
         try {
             temp = cfg.getTemplate(template_filename);
         } catch (IOException e) {
             throw new IOException("IOException when configuring template "+template_filename,e);
         }
-        StringWriter out = new StringWriter();
         try {
             temp.process(m,out);
         } catch (TemplateException e) {
@@ -80,33 +181,29 @@ final class TemplateHandler {
             throw new IOException("IOException when rendering template "+template_filename+" with contents "+m,e);
         }
         out.flush();
-        return out.toString();
     }
 
     // FIXME: This method seems like it belong in the StoryMap class. Perhaps it
     // could be combined with the Memento pattern.
     /**
-     * Render a StoryMap rendered as HTML.
-     * 
-     * @param m The StoryMap to be rendered
-     * @param files_dir The path to the directory where the story map's images
-     * are stored. Image URLs in the HTML will be prefixed with this string.
-     * @return The rendered StoryMap (String)
+     * Build the data model that story.ftl renders a StoryMap from.
      */
-    String renderStoryMap(StoryMap m, String filesPath) throws IOException, TemplateHandlerException {
-        Map root = new HashMap();
+    private Map<String,Object> storyMapModel(StoryMap m, String filesPath) {
+        Map<String,Object> root = new HashMap<String,Object>();
         root.put("filesPath",filesPath);
-        Map storyMap = new HashMap();
+        Map<String,Object> storyMap = new HashMap<String,Object>();
         root.put("StoryMap", storyMap);
         storyMap.put("title", m.getEditor().getTitle());
-        List storyCards = new ArrayList<Map>();
-        for (int i=0; i<m.getStoryCards().size(); i++) {
-            StoryCard c = m.getStoryCards().get(i);
-            Map function = new HashMap();
+        List<StoryCard> cards = m.getStoryCards();
+        List<Map<String,Object>> storyCards =
+                new ArrayList<Map<String,Object>>(cards.size());
+        for (int i=0; i<cards.size(); i++) {
+            StoryCard c = cards.get(i);
+            Map<String,Object> function = new HashMap<String,Object>();
             function.put("name", c.getFunction().getName());
             function.put("description", c.getFunction().getDescription());
             function.put("instructions", c.getFunction().getInstructions());
-            Map storyCard = new HashMap();
+            Map<String,Object> storyCard = new HashMap<String,Object>();
             storyCard.put("number",i);
             storyCard.put("Function",function);            
             storyCard.put("text",c.getEditor().getTextAsHTML());
@@ -114,7 +211,65 @@ final class TemplateHandler {
             storyCards.add(storyCard);
         }
         storyMap.put("storyCards", storyCards);
-        return renderMap(root, "story.ftl");
+        return root;
+    }
+
+    /**
+     * Render a StoryMap rendered as HTML.
+     * 
+     * @param m The StoryMap to be rendered
+     * @param files_dir The path to the directory where the story map's images
+     * are stored. Image URLs in the HTML will be prefixed with this string.
+     * @return The rendered StoryMap (String)
+     */
+    String renderStoryMap(StoryMap m, String filesPath) throws IOException, TemplateHandlerException {
+        return renderMap(storyMapModel(m, filesPath), "story.ftl");
+    }
+
+    /**
+     * Render a StoryMap as HTML straight to a Writer. The writer is flushed
+     * but not closed.
+     *
+     * @param m The StoryMap to be rendered
+     * @param filesPath The path to the directory where the story map's images
+     * are stored. Image URLs in the HTML will be prefixed with this string.
+     * @param out The writer to write the HTML to
+     */
+    void renderStoryMap(StoryMap m, String filesPath, Writer out) throws IOException, TemplateHandlerException {
+        renderMap(storyMapModel(m, filesPath), "story.ftl", out);
+    }
+
+    /**
+     * Render a StoryMap as HTML straight to a Writer (e.g. standard output or
+     * a socket), with image URLs pointing at the images bundled with the
+     * application. The writer is flushed but not closed.
+     *
+     * @param m The StoryMap to be rendered
+     * @param out The writer to write the HTML to
+     */
+    void renderStoryMap(StoryMap m, Writer out) throws IOException, TemplateHandlerException {
+        renderStoryMap(m, Util.class.getResource("/data/functions/").toString(), out);
+    }
+
+    /**
+     * Render a StoryMap as HTML to a UTF-8 encoded file. The HTML is streamed
+     * to the file as it is rendered and declares its encoding.
+     *
+     * @param m The StoryMap to be rendered
+     * @param filesPath The path to the directory where the story map's images
+     * are stored. Image URLs in the HTML will be prefixed with this string.
+     * @param absolutePath The canonical and absolute system path to the file
+     * to write.
+     */
+    void exportStoryMap(StoryMap m, String filesPath, String absolutePath) throws IOException, TemplateHandlerException {
+        Map<String,Object> root = storyMapModel(m, filesPath);
+        root.put("charset", Util.TEXT_FILE_CHARSET);
+        Writer out = Util.newTextFileWriter(absolutePath);
+        try {
+            renderMap(root, "story.ftl", out);
+        } finally {
+            out.close();
+        }
     }
 
     /**
@@ -125,10 +280,10 @@ final class TemplateHandler {
      */
     String renderFunctions() throws IOException, TemplateHandlerException {
         Template temp = null;
-        Map root = new HashMap();
-        List functions = new ArrayList();
+        Map<String,Object> root = new HashMap<String,Object>();
+        List<Map<String,Object>> functions = new ArrayList<Map<String,Object>>();
         for (Function f : Function.getFunctions()) {
-            Map fmap = new HashMap();
+            Map<String,Object> fmap = new HashMap<String,Object>();
             fmap.put("number",f.getNumber());
             fmap.put("name",f.getName());
             fmap.put("description",f.getDescription());
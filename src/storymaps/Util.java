@@ -25,6 +25,8 @@ import java.awt.Image;
 import javax.swing.ImageIcon;
 import javax.imageio.ImageIO;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.logging.Logger;
@@ -149,22 +151,51 @@ public class Util {
         return contents;
     }
 
+    /**
+     * The character encoding of the text files that we write.
+     */
+    public static final String TEXT_FILE_CHARSET = "UTF-8";
+
+    /**
+     * Open a buffered writer that writes text encoded as TEXT_FILE_CHARSET to
+     * a file at a canonical and absolute system path, replacing the file if
+     * it already exists. The caller must close the writer.
+     *
+     * @param path The canonical and absolute system path to the file to write.
+     */
+    public static Writer newTextFileWriter(String absolutePath) throws IOException {
+        try {
+            FileChannel channel = new FileOutputStream(absolutePath).getChannel();
+            return new BufferedWriter(Channels.newWriter(channel, TEXT_FILE_CHARSET));
+        } catch (IOException e) {
+            String detail = "IOException when opening text file for writing at path: "+absolutePath;
+            IOException ee = new IOException(detail,e);
+            Logger.getLogger(Util.class.getName()).throwing("Util", "newTextFileWriter", ee);
+            throw ee;
+        }
+    }
+
     /**
      * Write a string out to a text file at a canonical and absolute system
-     * path.
+     * path, encoded as TEXT_FILE_CHARSET.
      * 
      * @param s The string to be written.
      * @param path The canonical and absolute system path to the file to write.
      */
     public static void writeTextToFile(String s, String absolutePath) throws IOException {        
+        Writer out = newTextFileWriter(absolutePath);
         try {
-            PrintWriter out = new PrintWriter(new FileWriter(absolutePath));
-            out.print(s);
+            out.write(s);
             out.close();
         } catch (IOException e) {
             String detail = "IOException when writing text file to path: "+absolutePath;
             IOException ee = new IOException(detail,e);
             Logger.getLogger(Util.class.getName()).throwing("Util", "writeTextToFile", ee);
+            try {
+                out.close();
+            } catch (IOException e2) {
+                // Already failed, the first exception is the one to report.
+            }
             throw ee;
         }        
     }
@@ -19,6 +19,7 @@
 
 */
 package storymaps.ui;
+import storymaps.Message;
 import storymaps.Messager;
 
 import edu.umd.cs.piccolo.PNode;
@@ -121,7 +122,7 @@ public class Button extends PNode {
     }
     
     protected void clicked() {
-        Messager.getMessager().send("button clicked",name);
+        Messager.getMessager().send(Message.BUTTON_CLICKED,name);
     }
 
     public String getName() {